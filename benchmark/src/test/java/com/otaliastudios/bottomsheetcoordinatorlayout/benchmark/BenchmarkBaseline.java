@@ -0,0 +1,95 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The stored cost of each benchmark scenario, in baseline.properties, and the thresholds
+ * that a new run is checked against. The file path and the record switch are passed
+ * by the build as system properties.
+ *
+ * When recording, the measured numbers replace the stored ones and nothing is checked.
+ */
+class BenchmarkBaseline {
+
+    // A run fails if it is this much slower than the baseline. Timings on a shared JVM are
+    // noisy, so this only catches real regressions.
+    private final static double TIME_THRESHOLD = 2.0;
+
+    // Allocations are stable: allow 10%, and a few bytes for the measurement itself.
+    private final static double ALLOCATION_THRESHOLD = 1.1;
+    private final static double ALLOCATION_SLACK_BYTES = 16;
+
+    private final File file;
+    private final boolean record;
+
+    BenchmarkBaseline() {
+        String path = System.getProperty("benchmark.baseline");
+        if (path == null) throw new IllegalStateException("No benchmark.baseline property. Run through Gradle.");
+        file = new File(path);
+        record = Boolean.parseBoolean(System.getProperty("benchmark.record"));
+    }
+
+    /**
+     * Records the scenario cost, or checks it against the baseline.
+     *
+     * @param scenario the scenario name
+     * @param nanosPerEvent the measured time per event
+     * @param bytesPerEvent the measured allocations per event, or a negative value if unknown
+     */
+    void check(String scenario, double nanosPerEvent, double bytesPerEvent) throws IOException {
+        Properties properties = load();
+        String nsKey = scenario + ".ns";
+        String bytesKey = scenario + ".bytes";
+        if (record) {
+            properties.setProperty(nsKey, String.valueOf(Math.round(nanosPerEvent)));
+            if (bytesPerEvent >= 0) properties.setProperty(bytesKey, String.valueOf(Math.round(bytesPerEvent)));
+            store(properties);
+            return;
+        }
+        String ns = properties.getProperty(nsKey);
+        if (ns == null) {
+            fail("No baseline for " + scenario + " in " + file + ". Record one with -PrecordBaseline.");
+        }
+        double maxNanos = Double.parseDouble(ns) * TIME_THRESHOLD;
+        assertTrue(scenario + ": " + Math.round(nanosPerEvent) + " ns/event, baseline " + ns,
+                nanosPerEvent <= maxNanos);
+        String bytes = properties.getProperty(bytesKey);
+        if (bytes != null && bytesPerEvent >= 0) {
+            double maxBytes = Double.parseDouble(bytes) * ALLOCATION_THRESHOLD + ALLOCATION_SLACK_BYTES;
+            assertTrue(scenario + ": " + Math.round(bytesPerEvent) + " B/event, baseline " + bytes,
+                    bytesPerEvent <= maxBytes);
+        }
+    }
+
+    private Properties load() throws IOException {
+        Properties properties = new Properties();
+        if (file.exists()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return properties;
+    }
+
+    private void store(Properties properties) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "Gesture benchmark baseline: mean ns and allocated bytes per event."
+                    + " Written by ./gradlew :benchmark:testReleaseUnitTest -PrecordBaseline.");
+        } finally {
+            out.close();
+        }
+    }
+}
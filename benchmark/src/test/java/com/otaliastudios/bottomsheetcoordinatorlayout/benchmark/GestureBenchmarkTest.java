@@ -0,0 +1,170 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout.benchmark;
+
+import android.support.v4.view.ViewCompat;
+import android.view.MotionEvent;
+
+import com.otaliastudios.bottomsheetcoordinatorlayout.BottomSheetCoordinatorBehavior;
+import com.otaliastudios.bottomsheetcoordinatorlayout.BottomSheetCoordinatorLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.management.ManagementFactory;
+import java.io.IOException;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays synthetic gestures through the behaviors and measures the cost of each
+ * event, in nanoseconds and allocated bytes. Each scenario is checked against its
+ * baseline, so that touch path regressions fail the build.
+ *
+ * Only the event dispatch is measured: the frames that settle the sheet between
+ * iterations are not. Numbers come from a Robolectric JVM, so they are only meaningful
+ * when compared with a baseline recorded on the same machine.
+ *
+ * There is no hidden to expanded scenario: a hidden sheet is off screen, so it can not
+ * be dragged, and showing it with setState() does not go through the touch path.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class GestureBenchmarkTest {
+
+    private final static int WARMUP_ITERATIONS = 20;
+    private final static int ITERATIONS = 100;
+
+    private final BenchmarkBaseline baseline = new BenchmarkBaseline();
+
+    private interface Scenario {
+        void prepare(BenchmarkSheet sheet);
+        int run(BenchmarkSheet sheet); // Returns the number of events.
+    }
+
+    @Test
+    public void slowDrag() throws IOException {
+        // A collapsed sheet, dragged up by half the screen in one second.
+        measure("slowDrag", new BenchmarkSheet(false), new TouchScenario(
+                BottomSheetCoordinatorBehavior.STATE_COLLAPSED, 0.95f, 0.45f, 60, 16));
+    }
+
+    @Test
+    public void fastFling() throws IOException {
+        measure("fastFling", new BenchmarkSheet(false), new TouchScenario(
+                BottomSheetCoordinatorBehavior.STATE_COLLAPSED, 0.95f, 0.65f, 6, 8));
+    }
+
+    @Test
+    public void dragWithAppBarExpanded() throws IOException {
+        // An expanded sheet, dragged down. The app bar is expanded, so the sheet should move.
+        measure("dragWithAppBarExpanded", new BenchmarkSheet(true), new TouchScenario(
+                BottomSheetCoordinatorBehavior.STATE_EXPANDED, 0.3f, 0.8f, 30, 16));
+    }
+
+    @Test
+    public void dragWithAppBarCollapsed() throws IOException {
+        // An expanded sheet, dragged down. The app bar is collapsed, so it should expand instead.
+        measure("dragWithAppBarCollapsed", new BenchmarkSheet(true), new TouchScenario(
+                BottomSheetCoordinatorBehavior.STATE_EXPANDED, 0.3f, 0.8f, 30, 16) {
+            @Override
+            public void prepare(BenchmarkSheet sheet) {
+                super.prepare(sheet);
+                //noinspection ConstantConditions
+                sheet.appBar.setExpanded(false, false);
+                sheet.frames(2);
+            }
+        });
+    }
+
+    @Test
+    public void nestedScrollForwarding() throws IOException {
+        // A collapsed sheet, dragged up through the inner content. Touch scrolls go
+        // through our NestedScrollingParent2 methods to the sheet behavior.
+        measure("nestedScrollForwarding", new BenchmarkSheet(true), new Scenario() {
+            private final int[] consumed = new int[2];
+
+            @Override
+            public void prepare(BenchmarkSheet sheet) {
+                sheet.reset(BottomSheetCoordinatorBehavior.STATE_COLLAPSED);
+            }
+
+            @Override
+            public int run(BenchmarkSheet test) {
+                BottomSheetCoordinatorLayout sheet = test.sheet;
+                int events = 0;
+                sheet.onStartNestedScroll(test.content, test.content,
+                        ViewCompat.SCROLL_AXIS_VERTICAL, ViewCompat.TYPE_TOUCH);
+                events++;
+                for (int i = 0; i < 30; i++) {
+                    consumed[0] = 0;
+                    consumed[1] = 0;
+                    sheet.onNestedPreScroll(test.content, 0, 20, consumed, ViewCompat.TYPE_TOUCH);
+                    sheet.onNestedScroll(test.content, 0, 0, 0, 20 - consumed[1], ViewCompat.TYPE_TOUCH);
+                    events += 2;
+                }
+                sheet.onNestedPreFling(test.content, 0, 3000);
+                sheet.onNestedFling(test.content, 0, 3000, true);
+                sheet.onStopNestedScroll(test.content, ViewCompat.TYPE_TOUCH);
+                return events + 3;
+            }
+        });
+    }
+
+    private static class TouchScenario implements Scenario {
+        private final int startState;
+        private final float fromFraction;
+        private final float toFraction;
+        private final int moves;
+        private final long interval;
+        private MotionEvent[] events;
+
+        TouchScenario(int startState, float fromFraction, float toFraction, int moves, long interval) {
+            this.startState = startState;
+            this.fromFraction = fromFraction;
+            this.toFraction = toFraction;
+            this.moves = moves;
+            this.interval = interval;
+        }
+
+        @Override
+        public void prepare(BenchmarkSheet sheet) {
+            if (events != null) BenchmarkSheet.recycle(events);
+            sheet.reset(startState);
+            int height = sheet.parent.getHeight();
+            events = sheet.gesture(height * fromFraction, height * toFraction, moves, interval);
+        }
+
+        @Override
+        public int run(BenchmarkSheet sheet) {
+            sheet.dispatch(events);
+            return events.length;
+        }
+    }
+
+    private void measure(String name, BenchmarkSheet sheet, Scenario scenario) throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        long thread = Thread.currentThread().getId();
+
+        long events = 0;
+        long nanos = 0;
+        long bytes = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            scenario.prepare(sheet);
+            long startBytes = allocations != null ? allocations.getThreadAllocatedBytes(thread) : 0;
+            long start = System.nanoTime();
+            int count = scenario.run(sheet);
+            long end = System.nanoTime();
+            long endBytes = allocations != null ? allocations.getThreadAllocatedBytes(thread) : 0;
+            sheet.settle();
+            if (i >= WARMUP_ITERATIONS) {
+                events += count;
+                nanos += end - start;
+                bytes += endBytes - startBytes;
+            }
+        }
+        assertTrue(events > 0);
+        baseline.check(name, (double) nanos / events, allocations != null ? (double) bytes / events : -1);
+    }
+}
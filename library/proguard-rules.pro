@@ -9,6 +9,30 @@
 
 # Add any project specific keep options here:
 
+# These rules are also shipped to consumers (see consumerProguardFiles).
+
+# Behaviors are instantiated by CoordinatorLayout through reflection, either from
+# @DefaultBehavior or from app:layout_behavior in XML (see res/values/strings.xml).
+-keepattributes RuntimeVisibleAnnotations
+-keep public class com.otaliastudios.bottomsheetcoordinatorlayout.BottomSheetCoordinatorLayout
+-keep public class com.otaliastudios.bottomsheetcoordinatorlayout.BottomSheetCoordinatorBehavior {
+    public <init>();
+    public <init>(android.content.Context, android.util.AttributeSet);
+}
+-keep public class com.otaliastudios.bottomsheetcoordinatorlayout.BottomSheetInsetsBehavior {
+    public <init>();
+    public <init>(android.content.Context, android.util.AttributeSet);
+}
+-keep public class com.otaliastudios.bottomsheetcoordinatorlayout.AppBarLockBehavior {
+    public <init>();
+    public <init>(android.content.Context, android.util.AttributeSet);
+}
+
+# Saved state.
+-keepclassmembers class com.otaliastudios.bottomsheetcoordinatorlayout.BottomSheetInsetsBehavior$SavedState {
+    public static final ** CREATOR;
+}
+
 # If your project uses WebView with JS, uncomment the following
 # and specify the fully qualified class name to the JavaScript interface
 # class:
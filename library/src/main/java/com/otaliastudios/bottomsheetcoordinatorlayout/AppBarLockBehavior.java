@@ -0,0 +1,73 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.design.widget.AppBarLayout;
+import android.support.design.widget.CoordinatorLayout;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * An {@link AppBarLayout.Behavior} whose offset can be locked.
+ *
+ * {@link BottomSheetCoordinatorLayout} assigns this to app bars that have no behavior of their own,
+ * and locks it while the sheet is not expanded. When locked, nested scrolls and drags are
+ * rejected before they reach the app bar, so the offset never changes and we don't have
+ * to set it back.
+ */
+public class AppBarLockBehavior extends AppBarLayout.Behavior {
+
+    private boolean locked;
+
+    private final DragCallback dragCallback = new DragCallback() {
+        @Override
+        public boolean canDrag(@NonNull AppBarLayout appBarLayout) {
+            return !locked;
+        }
+    };
+
+    public AppBarLockBehavior() {
+        setDragCallback(dragCallback);
+    }
+
+    public AppBarLockBehavior(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        setDragCallback(dragCallback);
+    }
+
+    /**
+     * Locks or unlocks the app bar offset.
+     *
+     * @param locked whether the offset should be locked
+     */
+    public void setLocked(boolean locked) {
+        this.locked = locked;
+    }
+
+    /**
+     * Returns whether the app bar offset is locked.
+     *
+     * @return true if locked
+     */
+    public boolean isLocked() {
+        return locked;
+    }
+
+    @Override
+    public boolean onStartNestedScroll(@NonNull CoordinatorLayout parent, @NonNull AppBarLayout child, @NonNull View directTargetChild, View target, int nestedScrollAxes, int type) {
+        return !locked && super.onStartNestedScroll(parent, child, directTargetChild, target, nestedScrollAxes, type);
+    }
+
+    @Override
+    public void onNestedPreScroll(CoordinatorLayout coordinatorLayout, AppBarLayout child, View target, int dx, int dy, int[] consumed, int type) {
+        // We might have been locked after the nested scroll started.
+        if (locked) return;
+        super.onNestedPreScroll(coordinatorLayout, child, target, dx, dy, consumed, type);
+    }
+
+    @Override
+    public void onNestedScroll(CoordinatorLayout coordinatorLayout, AppBarLayout child, View target, int dxConsumed, int dyConsumed, int dxUnconsumed, int dyUnconsumed, int type) {
+        if (locked) return;
+        super.onNestedScroll(coordinatorLayout, child, target, dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed, type);
+    }
+}
@@ -1,10 +1,17 @@
 package com.otaliastudios.bottomsheetcoordinatorlayout;
 
 import android.content.Context;
+import android.graphics.Rect;
 import android.support.design.widget.CoordinatorLayout;
-import android.support.v4.view.MotionEventCompat;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+import java.lang.ref.WeakReference;
 
 /**
  * This {@code Behavior} allows {@link android.support.design.widget.AppBarLayout} to accept drag events.
@@ -23,14 +30,37 @@ import android.view.MotionEvent;
  */
 public class BottomSheetCoordinatorBehavior extends BottomSheetInsetsBehavior<BottomSheetCoordinatorLayout> {
 
-    private boolean fingerDown;
-    private float lastY;
+    private GestureDirectionTracker directionTracker;
+    // Hit test cache, and the sheet position it was computed for.
+    private final Rect sheetBounds = new Rect();
+    private int sheetLeft, sheetTop, sheetRight, sheetBottom;
+    private float sheetTranslationX, sheetTranslationY;
+    private boolean sheetBoundsValid;
+    private BottomSheetCallback callback;
+    private GestureTraceRecorder traceRecorder;
+
+    // Snap anchors. While the sheet rests at a custom anchor, it is STATE_COLLAPSED with the
+    // real peek height, and we keep it in place during layout. The peek height is only changed
+    // while settling, so that BottomSheetBehavior settles to the anchor.
+    private SnapAnchorTable anchors;
+    private SnapAnchorTable flingTargets; // Expanded, collapsed and hidden, when there are no anchors.
+    private WeakReference<View> sheetRef;
+    private int basePeekHeight;
+    private boolean peekOverridden;
+    private float minFlingVelocity = -1;
+    private float nestedFlingVelocity;
+    private int snapState = -1;
+    private int snapTop = -1;
+    private int restingHeight = -1;
+    private boolean draggedSinceRelease;
 
     public BottomSheetCoordinatorBehavior() {
+        super.setBottomSheetCallback(sheetCallback);
     }
 
     public BottomSheetCoordinatorBehavior(Context context, AttributeSet attrs) {
         super(context, attrs);
+        super.setBottomSheetCallback(sheetCallback);
     }
 
     public static BottomSheetCoordinatorBehavior from(BottomSheetCoordinatorLayout view) {
@@ -38,33 +68,354 @@ public class BottomSheetCoordinatorBehavior extends BottomSheetInsetsBehavior<Bo
         return (BottomSheetCoordinatorBehavior) params.getBehavior();
     }
 
+    /**
+     * We keep our own callback registered to the behavior, so that the sheet layout can
+     * observe state and offset changes. The given callback is invoked after that.
+     *
+     * @param callback desired callback
+     */
+    @Override
+    public void setBottomSheetCallback(BottomSheetCallback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Sets a recorder that will store touch events, state changes and app bar offset
+     * changes as they go through this behavior. Pass null to stop recording.
+     *
+     * @param recorder the recorder, or null
+     */
+    public void setGestureTraceRecorder(@Nullable GestureTraceRecorder recorder) {
+        traceRecorder = recorder;
+    }
+
+    /**
+     * Returns the current recorder, if any.
+     *
+     * @return the recorder, or null
+     */
+    @Nullable
+    public GestureTraceRecorder getGestureTraceRecorder() {
+        return traceRecorder;
+    }
+
+    /**
+     * Sets snap anchors, as visible sheet heights in pixels, measured from the parent bottom.
+     * When released, the sheet will rest at the closest anchor or, if flung, at the next anchor
+     * in the fling direction. Expanded, collapsed and hidden offsets are always anchors,
+     * as long as the behavior allows them.
+     *
+     * While resting at a custom anchor, the sheet is in {@link #STATE_COLLAPSED} state.
+     * Collapsing it from there moves it to the collapsed offset.
+     *
+     * @param heights visible heights in pixels, or nothing to remove pixel anchors
+     */
+    public void setSnapAnchors(int... heights) {
+        if (anchors == null) anchors = new SnapAnchorTable();
+        anchors.setHeights(heights);
+        onSnapAnchorsChanged();
+    }
+
+    /**
+     * Same as {@link #setSnapAnchors(int...)}, but anchors are fractions of the parent
+     * height, e.g. 0.5F for a sheet that covers half of the parent.
+     *
+     * @param fractions visible heights as fractions of the parent height,
+     *                  or nothing to remove fraction anchors
+     */
+    public void setSnapAnchorFractions(float... fractions) {
+        if (anchors == null) anchors = new SnapAnchorTable();
+        anchors.setFractions(fractions);
+        onSnapAnchorsChanged();
+    }
+
+    /**
+     * Removes all snap anchors.
+     */
+    public void clearSnapAnchors() {
+        if (anchors == null) return;
+        anchors.setHeights(new int[0]);
+        anchors.setFractions(new float[0]);
+        onSnapAnchorsChanged();
+    }
+
+    private void onSnapAnchorsChanged() {
+        if (!anchors.isEmpty()) return; // Table is built on the next layout or release.
+        anchors = null;
+        View sheet = sheetRef == null ? null : sheetRef.get();
+        if (leaveSnapAnchor() && sheet != null) sheet.requestLayout();
+    }
+
+    /**
+     * Brings back the original peek height and stops holding the sheet at a custom anchor,
+     * if it was. Called before the peek height is changed or the sheet is collapsed.
+     *
+     * @return true if the sheet was resting at a custom anchor, and needs a layout
+     */
+    boolean leaveSnapAnchor() {
+        restorePeekHeight();
+        boolean wasResting = restingHeight != -1;
+        restingHeight = -1;
+        return wasResting;
+    }
+
+    private final BottomSheetCallback sheetCallback = new BottomSheetCallback() {
+        @Override
+        public void onStateChanged(@NonNull View bottomSheet, int newState) {
+            if (snapState != -1 && !onSnapStateChanged(newState)) return;
+            if (snapTop != -1 && newState != STATE_SETTLING) onSnapEnded(newState);
+            if (newState != STATE_COLLAPSED) restingHeight = -1;
+            if (newState == STATE_DRAGGING) draggedSinceRelease = true;
+            if (traceRecorder != null) traceRecorder.recordState(newState);
+            if (newState != STATE_DRAGGING && newState != STATE_SETTLING) {
+                clearRequestedState();
+            }
+            if (bottomSheet instanceof BottomSheetCoordinatorLayout) {
+                ((BottomSheetCoordinatorLayout) bottomSheet).onSheetStateChanged(newState);
+            }
+            if (callback != null) callback.onStateChanged(bottomSheet, newState);
+        }
+
+        @Override
+        public void onSlide(@NonNull View bottomSheet, float slideOffset) {
+            if (peekOverridden && snapTop != -1 && bottomSheet.getTop() == snapTop) {
+                // We reached the anchor and are still settling: put back the real collapsed offset,
+                // so that, from here, the sheet can be dragged down again. This does not trigger a layout.
+                restorePeekHeight();
+            }
+            if (bottomSheet instanceof BottomSheetCoordinatorLayout) {
+                ((BottomSheetCoordinatorLayout) bottomSheet).onSheetSlide(slideOffset);
+            }
+            if (callback != null) callback.onSlide(bottomSheet, slideOffset);
+        }
+    };
+
+    @Override
+    public boolean onLayoutChild(CoordinatorLayout parent, BottomSheetCoordinatorLayout child, int layoutDirection) {
+        boolean result = super.onLayoutChild(parent, child, layoutDirection);
+        if (sheetRef == null || sheetRef.get() != child) sheetRef = new WeakReference<View>(child);
+        if (anchors != null) {
+            buildAnchors(parent, child);
+            if (restingHeight != -1 && getState() == STATE_COLLAPSED) {
+                // BottomSheetBehavior just moved us to the collapsed offset. Go back to the anchor.
+                int restingTop = Math.max(parent.getHeight() - restingHeight, anchors.getExpandedTop());
+                ViewCompat.offsetTopAndBottom(child, restingTop - child.getTop());
+            }
+        }
+        return result;
+    }
+
+    private void buildAnchors(View parent, View child) {
+        if (!peekOverridden) basePeekHeight = getPeekHeight();
+        anchors.build(parent.getHeight(), getExpandedTop(parent, child),
+                getCollapsedTop(parent, child, basePeekHeight), getSkipCollapsed());
+    }
+
+    @Override
+    public boolean onStartNestedScroll(@NonNull CoordinatorLayout coordinatorLayout, @NonNull BottomSheetCoordinatorLayout child,
+                                       @NonNull View directTargetChild, @NonNull View target, int axes, int type) {
+        if (type == ViewCompat.TYPE_TOUCH) nestedFlingVelocity = 0;
+        return super.onStartNestedScroll(coordinatorLayout, child, directTargetChild, target, axes, type);
+    }
+
+    @Override
+    public boolean onNestedPreFling(@NonNull CoordinatorLayout coordinatorLayout, @NonNull BottomSheetCoordinatorLayout child,
+                                    @NonNull View target, float velocityX, float velocityY) {
+        // Content velocity is positive when content scrolls down, which means that the sheet goes up.
+        nestedFlingVelocity = -velocityY;
+        return super.onNestedPreFling(coordinatorLayout, child, target, velocityX, velocityY);
+    }
+
+    @Override
+    public void onStopNestedScroll(@NonNull CoordinatorLayout coordinatorLayout, @NonNull BottomSheetCoordinatorLayout child,
+                                   @NonNull View target, int type) {
+        super.onStopNestedScroll(coordinatorLayout, child, target, type);
+        if (type == ViewCompat.TYPE_TOUCH) snapToAnchor(child, nestedFlingVelocity);
+    }
+
     @Override
     public boolean onTouchEvent(CoordinatorLayout parent, BottomSheetCoordinatorLayout sheet, MotionEvent event) {
-        if (!sheet.hasAppBar()) return super.onTouchEvent(parent, sheet, event);
+        if (traceRecorder != null) traceRecorder.recordEvent(GestureTraceRecorder.TYPE_TOUCH, event);
+        FrameMetricsTracker tracker = sheet.getFrameMetricsTracker();
+        if (tracker == null) return onTouchEventInternal(parent, sheet, event);
+        long start = System.nanoTime();
+        boolean result = onTouchEventInternal(parent, sheet, event);
+        tracker.onTouchEvent(event, System.nanoTime() - start);
+        return result;
+    }
+
+    @Override
+    public boolean onInterceptTouchEvent(CoordinatorLayout parent, BottomSheetCoordinatorLayout sheet, MotionEvent event) {
+        if (traceRecorder != null) traceRecorder.recordEvent(GestureTraceRecorder.TYPE_INTERCEPT, event);
+        FrameMetricsTracker tracker = sheet.getFrameMetricsTracker();
+        if (tracker == null) return onInterceptTouchEventInternal(parent, sheet, event);
+        long start = System.nanoTime();
+        boolean result = onInterceptTouchEventInternal(parent, sheet, event);
+        tracker.onInterceptTouchEvent(event, System.nanoTime() - start);
+        return result;
+    }
+
+    private boolean onTouchEventInternal(CoordinatorLayout parent, BottomSheetCoordinatorLayout sheet, MotionEvent event) {
+        // Track direction for the whole gesture, even if it leaves the sheet.
+        boolean fingerDown = updateDirection(parent, event);
+        if (!sheet.hasAppBar()) return onTouchEventSnapping(parent, sheet, event);
 
         // If the touch is not on the sheet, we don't care.
-        if (!parent.isPointInChildBounds(sheet, (int) event.getX(), (int) event.getY())) {
+        if (!isPointInSheet(sheet, (int) event.getX(), (int) event.getY())) {
             return super.onTouchEvent(parent, sheet, event);
         }
-        updateDirection(event);
         if (sheet.getState() == BottomSheetCoordinatorBehavior.STATE_EXPANDED && !sheet.canScrollUp() && !fingerDown) {
             // Release this. Doesn't work well because BottomSheetBehavior keeps being STATE_DRAGGING
             // even when we reached full height, as long as we keep the finger there.
             return false;
         }
-        return super.onTouchEvent(parent, sheet, event);
+        return onTouchEventSnapping(parent, sheet, event);
     }
 
-    @Override
-    public boolean onInterceptTouchEvent(CoordinatorLayout parent, BottomSheetCoordinatorLayout sheet, MotionEvent event) {
+    private boolean onTouchEventSnapping(CoordinatorLayout parent, BottomSheetCoordinatorLayout sheet, MotionEvent event) {
+        boolean result = super.onTouchEvent(parent, sheet, event);
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            snapToAnchor(sheet, directionTracker.getReleaseVelocity());
+        }
+        return result;
+    }
+
+    /**
+     * Called after BottomSheetBehavior released the sheet. If it is settling, we find the
+     * best anchor for the current offset and velocity, and settle there instead.
+     *
+     * @param child the sheet
+     * @param velocity the sheet velocity in px/s, positive when moving down
+     */
+    private void snapToAnchor(View child, float velocity) {
+        boolean dragged = draggedSinceRelease;
+        draggedSinceRelease = false;
+        // Not settling after a drag: this is a tap, or someone else's settle.
+        if (anchors == null || !dragged || getState() != STATE_SETTLING) return;
+        View parent = (View) child.getParent();
+        if (!anchors.isBuilt()) buildAnchors(parent, child);
+        int top = child.getTop();
+        int targetTop = anchors.resolve(top, velocity, getMinFlingVelocity(child), isHideable());
+        // If already there, setState would end synchronously, before the settle that was
+        // started on release. Let that one go: it is moving to an anchor anyway.
+        if (targetTop == top) return;
+        settleToAnchor(parent, targetTop);
+    }
+
+    /**
+     * Called when a fling of the inner content reached the content top with momentum left,
+     * while expanded. The sheet settles as if it had been released with that velocity:
+     * to the next anchor, or to the collapsed or hidden state, in the fling direction.
+     *
+     * BottomSheetBehavior settles with ViewDragHelper.smoothSlideViewTo, which can not be
+     * given an initial velocity, so the velocity picks the target and the settle takes it there.
+     *
+     * @param child the sheet
+     * @param velocity the sheet velocity in px/s, positive when moving down
+     * @return true if the sheet started settling
+     */
+    boolean onContentFling(View child, float velocity) {
+        if (getState() != STATE_EXPANDED) return false;
+        View parent = (View) child.getParent();
+        int top = child.getTop();
+        float minFling = getMinFlingVelocity(child);
+        if (anchors != null) {
+            if (!anchors.isBuilt()) buildAnchors(parent, child);
+            int targetTop = anchors.resolve(top, velocity, minFling, isHideable());
+            if (targetTop == top) return false;
+            settleToAnchor(parent, targetTop);
+            return true;
+        }
+        if (flingTargets == null) flingTargets = new SnapAnchorTable();
+        flingTargets.build(parent.getHeight(), getExpandedTop(parent, child),
+                getCollapsedTop(parent, child, getPeekHeight()), getSkipCollapsed());
+        int targetTop = flingTargets.resolve(top, velocity, minFling, isHideable());
+        if (targetTop == top) return false;
+        int targetState = targetTop == flingTargets.getHiddenTop() ? STATE_HIDDEN
+                : targetTop == flingTargets.getCollapsedTop() ? STATE_COLLAPSED : STATE_EXPANDED;
+        setRequestedState(targetState);
+        setState(targetState);
+        return true;
+    }
+
+    private float getMinFlingVelocity(View child) {
+        if (minFlingVelocity < 0) {
+            minFlingVelocity = ViewConfiguration.get(child.getContext()).getScaledMinimumFlingVelocity();
+        }
+        return minFlingVelocity;
+    }
+
+    private void settleToAnchor(View parent, int targetTop) {
+        // Any override left from a previous snap must go, even if the target is the real collapsed offset.
+        restorePeekHeight();
+        int targetState;
+        if (targetTop == anchors.getExpandedTop()) {
+            targetState = STATE_EXPANDED;
+        } else if (targetTop == anchors.getHiddenTop()) {
+            targetState = STATE_HIDDEN;
+        } else {
+            targetState = STATE_COLLAPSED;
+            if (targetTop != anchors.getCollapsedTop()) {
+                // We are not collapsed, so this does not trigger a layout.
+                peekOverridden = true;
+                setPeekHeight(parent.getHeight() - targetTop);
+            }
+        }
+        snapState = targetState;
+        snapTop = targetTop;
+        setRequestedState(targetState);
+        setState(targetState);
+    }
+
+    /**
+     * Called on the first state change after we started snapping, other than settling.
+     *
+     * @param newState the new state
+     * @return true if the state should be dispatched
+     */
+    private boolean onSnapStateChanged(int newState) {
+        if (newState == STATE_SETTLING) return true;
+        int target = snapState;
+        snapState = -1;
+        // The settle started by BottomSheetBehavior on release is still posted: it ends in the same frame
+        // as ours, right before it, with its own target state. Swallow that one.
+        return newState == target || newState == STATE_DRAGGING;
+    }
+
+    private void onSnapEnded(int newState) {
+        if (newState == STATE_COLLAPSED && anchors != null && snapTop != anchors.getCollapsedTop()) {
+            restingHeight = anchors.getHiddenTop() - snapTop;
+        }
+        snapTop = -1;
+        // If the snap was interrupted (e.g. by a drag), the override is still there, and
+        // BottomSheetBehavior would clamp drags and nested pre-scrolls at the anchor.
+        restorePeekHeight();
+    }
+
+    /**
+     * Puts back the peek height that was overridden to settle at an anchor.
+     * This does not trigger a layout while dragging or settling.
+     */
+    private void restorePeekHeight() {
+        if (!peekOverridden) return;
+        peekOverridden = false;
+        if (basePeekHeight == PEEK_HEIGHT_AUTO && anchors != null && anchors.isBuilt()) {
+            // PEEK_HEIGHT_AUTO alone does not move the collapsed offset until the next layout.
+            setPeekHeight(anchors.getHiddenTop() - anchors.getCollapsedTop());
+        }
+        setPeekHeight(basePeekHeight);
+    }
+
+    private boolean onInterceptTouchEventInternal(CoordinatorLayout parent, BottomSheetCoordinatorLayout sheet, MotionEvent event) {
+        // Track direction for the whole gesture, even if it leaves the sheet.
+        boolean fingerDown = updateDirection(parent, event);
         if (!sheet.hasAppBar()) return super.onInterceptTouchEvent(parent, sheet, event);
 
         // If the touch is not on the sheet, we don't care.
-        if (!parent.isPointInChildBounds(sheet, (int) event.getX(), (int) event.getY())) {
+        if (!isPointInSheet(sheet, (int) event.getX(), (int) event.getY())) {
             return super.onInterceptTouchEvent(parent, sheet, event);
         }
-
-        updateDirection(event);
         if (sheet.getState() == BottomSheetCoordinatorBehavior.STATE_EXPANDED) {
             // If finger is going down and
             if (!sheet.canScrollUp()) {
@@ -90,27 +441,42 @@ public class BottomSheetCoordinatorBehavior extends BottomSheetInsetsBehavior<Bo
         }
     }
 
-    private void updateDirection(MotionEvent event) {
-        if (lastY == 0) {
-            lastY = event.getY();
-            fingerDown = false;
-            return;
+    /**
+     * Same as {@link CoordinatorLayout#isPointInChildBounds(View, int, int)}, but the sheet
+     * bounds are cached, rather than being computed for each event. The cache is keyed on the
+     * sheet position and translation, so it is rebuilt whenever the sheet moved, whoever moved it:
+     * layouts, offsets, or translations set by the app or by an animation.
+     */
+    boolean isPointInSheet(BottomSheetCoordinatorLayout sheet, int x, int y) {
+        int left = sheet.getLeft();
+        int top = sheet.getTop();
+        int right = sheet.getRight();
+        int bottom = sheet.getBottom();
+        float translationX = sheet.getTranslationX();
+        float translationY = sheet.getTranslationY();
+        if (!sheetBoundsValid
+                || left != sheetLeft || top != sheetTop || right != sheetRight || bottom != sheetBottom
+                || translationX != sheetTranslationX || translationY != sheetTranslationY) {
+            int dx = (int) translationX;
+            int dy = (int) translationY;
+            sheetBounds.set(left + dx, top + dy, right + dx, bottom + dy);
+            sheetLeft = left;
+            sheetTop = top;
+            sheetRight = right;
+            sheetBottom = bottom;
+            sheetTranslationX = translationX;
+            sheetTranslationY = translationY;
+            sheetBoundsValid = true;
         }
-        switch (event.getActionMasked()) {
-            case MotionEvent.ACTION_DOWN:
-                fingerDown = false;
-                lastY = event.getY();
-                return;
-            case MotionEvent.ACTION_MOVE:
-                float newY = event.getY();
-                fingerDown = newY > lastY;
-                lastY = newY;
-                break;
-            case MotionEvent.ACTION_CANCEL:
-            case MotionEvent.ACTION_UP:
-                fingerDown = false;
-                lastY = 0;
-                break;
+        return sheetBounds.contains(x, y);
+    }
+
+    private boolean updateDirection(CoordinatorLayout parent, MotionEvent event) {
+        if (directionTracker == null) {
+            int touchSlop = ViewConfiguration.get(parent.getContext()).getScaledTouchSlop();
+            directionTracker = new GestureDirectionTracker(touchSlop);
         }
+        directionTracker.onTouchEvent(event);
+        return directionTracker.isFingerDown();
     }
 }
@@ -1,28 +1,30 @@
 package com.otaliastudios.bottomsheetcoordinatorlayout;
 
 import android.content.Context;
+import android.graphics.Canvas;
 import android.os.Build;
+import android.support.annotation.LayoutRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.design.widget.AppBarLayout;
-import android.support.design.widget.BottomSheetBehavior;import android.support.design.widget.CoordinatorLayout;
+import android.support.design.widget.BottomSheetBehavior;
+import android.support.design.widget.CoordinatorLayout;
 import android.support.v4.view.ViewCompat;
-import android.support.v4.widget.NestedScrollView;
-import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
-import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.ViewTreeObserver;
-import android.widget.ScrollView;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A hacky {@link CoordinatorLayout} that can act as a bottom sheet through
  * {@link BottomSheetBehavior}.
  *
  * This works by *not* reinventing the wheel and reusing the same nested scrolling logic implemented
- * by behaviors. There is a dummy view inside the sheet that is capable of getting nested scrolling
- * callbacks, and forward them to the *outer* behavior that they normally would never reach.
+ * by behaviors. As a nested scrolling parent, this layout receives nested scrolling callbacks from
+ * its content, and forwards them to the *outer* behavior that they normally would never reach.
  *
  * Default behavior is {@link BottomSheetCoordinatorBehavior}, Which includes some workarounds
  * for window insets and app bar layout dragging.
@@ -31,16 +33,56 @@ import android.widget.ScrollView;
 public class BottomSheetCoordinatorLayout extends CoordinatorLayout implements
         AppBarLayout.OnOffsetChangedListener {
 
-    private static final String TAG = BottomSheetCoordinatorLayout.class.getSimpleName();
+    /**
+     * The sheet is not moving.
+     * @see OnSheetMotionListener
+     */
+    public static final int MOTION_IDLE = 0;
+
+    /**
+     * The sheet is being dragged.
+     * @see OnSheetMotionListener
+     */
+    public static final int MOTION_DRAGGING = 1;
+
+    /**
+     * The sheet is settling.
+     * @see OnSheetMotionListener
+     */
+    public static final int MOTION_SETTLING = 2;
 
     private BottomSheetCoordinatorBehavior bottomSheetBehavior;
-    private BottomSheetBehavior.BottomSheetCallback delayedBottomSheetCallback;
-    private Boolean delayedHideable;
-    private Boolean delayedSkipCollapsed;
-    private Integer delayedState;
+    private final SheetEditor pendingEdits = new SheetEditor(this); // Applied before the behavior is available.
     private AppBarLayout.Behavior appBarBehavior;
     private int appBarOffset = 0;
     private boolean hasAppBar = false;
+    private ScrollabilityTracker scrollabilityTracker;
+    private HardwareLayerPromoter layerPromoter;
+    private SheetCallbackDispatcher callbackDispatcher;
+    private DeferredContent deferredContent;
+    private SheetMotionTracker motionTracker;
+    private boolean skipPassesWhenHidden;
+    private boolean skippedLayoutWhileHidden;
+    private boolean skippedDrawWhileHidden;
+    private int skippedPasses;
+    private int lastWidthMeasureSpec;
+    private int lastHeightMeasureSpec;
+    private final FlingHandoff flingHandoff = new FlingHandoff();
+    private boolean sheetAcceptedTouchScroll;
+    private boolean sheetAcceptedFlingScroll;
+    private final int[] sheetConsumed = new int[2];
+    private FrameMetricsTracker frameMetricsTracker;
+    private final List<OnGestureMetricsListener> gestureMetricsListeners = new ArrayList<>();
+    private final LayoutPassStats transitionStats = new LayoutPassStats();
+    private boolean inTransition;
+    private boolean inRestoreTransition;
+    private int transitionFromState;
+    private int transitionMeasurePasses;
+    private int transitionLayoutPasses;
+    private int transitionDrawPasses;
+    private int measurePasses;
+    private int layoutPasses;
+    private int drawPasses;
 
     public BottomSheetCoordinatorLayout(Context context) {
         super(context); i();
@@ -55,18 +97,11 @@ public class BottomSheetCoordinatorLayout extends CoordinatorLayout implements
     }
 
     private void i() {
-        // Add a dummy view that will receive inner touch events.
-        View dummyView = new View(getContext());
-        DummyBehavior dummyBehavior = new DummyBehavior();
-        // I *think* this is needed for dummyView to be identified as "topmost" and receive events
-        // before any other view.
-        ViewCompat.setElevation(dummyView, ViewCompat.getElevation(this));
-        // Make sure it does not fit windows, or it will consume insets before the AppBarLayout.
-        dummyView.setFitsSystemWindows(false);
-        LayoutParams params = new LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
-                ViewGroup.LayoutParams.MATCH_PARENT);
-        params.setBehavior(dummyBehavior);
-        addView(dummyView, params);
+        scrollabilityTracker = new ScrollabilityTracker(this);
+        layerPromoter = new HardwareLayerPromoter(this);
+        callbackDispatcher = new SheetCallbackDispatcher(this);
+        deferredContent = new DeferredContent(this);
+        motionTracker = new SheetMotionTracker(this);
     }
 
     /**
@@ -80,45 +115,124 @@ public class BottomSheetCoordinatorLayout extends CoordinatorLayout implements
      */
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        if (isSkippingHiddenPasses()
+                && widthMeasureSpec == lastWidthMeasureSpec
+                && heightMeasureSpec == lastHeightMeasureSpec) {
+            // Keep the last measurements. Children stay dirty until we are shown.
+            setMeasuredDimension(getMeasuredWidth(), getMeasuredHeight());
+            skippedLayoutWhileHidden = true;
+            skippedPasses++;
+            return;
+        }
+        lastWidthMeasureSpec = widthMeasureSpec;
+        lastHeightMeasureSpec = heightMeasureSpec;
+        measurePasses++;
+        if (deferredContent.isPending()) {
+            // If we are going to be shown expanded, content must be added before measuring.
+            BottomSheetCoordinatorBehavior behavior = BottomSheetCoordinatorBehavior.from(this);
+            if (behavior != null) {
+                boolean delayed = bottomSheetBehavior == null && pendingEdits.has(SheetEditor.FLAG_STATE);
+                deferredContent.onSheetState(delayed ? pendingEdits.state : behavior.getState());
+            }
+        }
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
         if (bottomSheetBehavior != null) return;
 
         // Fetch our own behavior.
         bottomSheetBehavior = BottomSheetCoordinatorBehavior.from(BottomSheetCoordinatorLayout.this);
-        if (delayedBottomSheetCallback != null) {
-            bottomSheetBehavior.setBottomSheetCallback(delayedBottomSheetCallback);
-            delayedBottomSheetCallback = null;
-        }
-        if (delayedSkipCollapsed != null) {
-            bottomSheetBehavior.setSkipCollapsed(delayedSkipCollapsed);
-            delayedSkipCollapsed = null;
-        }
-        if (delayedHideable != null) {
-            bottomSheetBehavior.setHideable(delayedHideable);
-            delayedHideable = null;
-        }
-        if (delayedState != null) { // This must be the last.
-            bottomSheetBehavior.setState(delayedState);
-            delayedState = null;
-        }
+        if (!pendingEdits.isEmpty()) applyEdits(pendingEdits, true);
 
         // Store AppBar's Behavior, and allow drag events on it.
         AppBarLayout appBarLayout = findAppBar();
         if (appBarLayout != null) {
             appBarLayout.addOnOffsetChangedListener(this);
             appBarBehavior = (AppBarLayout.Behavior) ((LayoutParams) appBarLayout.getLayoutParams()).getBehavior();
-            appBarBehavior.setDragCallback(new AppBarLayout.Behavior.DragCallback() {
-                @Override
-                public boolean canDrag(@NonNull AppBarLayout appBarLayout) {
-                    return true;
-                }
-            });
+            if (appBarBehavior instanceof AppBarLockBehavior) {
+                ((AppBarLockBehavior) appBarBehavior).setLocked(getState() != BottomSheetCoordinatorBehavior.STATE_EXPANDED);
+            } else {
+                // Custom behavior. We can at least reject drags, and fix offsets in onOffsetChanged.
+                appBarBehavior.setDragCallback(new AppBarLayout.Behavior.DragCallback() {
+                    @Override
+                    public boolean canDrag(@NonNull AppBarLayout appBarLayout) {
+                        return getState() == BottomSheetCoordinatorBehavior.STATE_EXPANDED;
+                    }
+                });
+            }
             hasAppBar = true;
         } else {
             hasAppBar = false;
         }
     }
 
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        if (isSkippingHiddenPasses() && !changed) {
+            skippedLayoutWhileHidden = true;
+            skippedPasses++;
+            return;
+        }
+        layoutPasses++;
+        super.onLayout(changed, l, t, r, b);
+        if (bottomSheetBehavior != null && !hasAppBar) {
+            scrollabilityTracker.refresh();
+        }
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        if (isSkippingHiddenPasses()) {
+            skippedDrawWhileHidden = true;
+            skippedPasses++;
+        } else {
+            drawPasses++;
+            layerPromoter.onDraw();
+            super.dispatchDraw(canvas);
+        }
+        if (inRestoreTransition) {
+            // The restored sheet made it to the screen.
+            inRestoreTransition = false;
+            endTransition(getState(), true);
+        }
+    }
+
+    @Override
+    public void onViewAdded(View child) {
+        super.onViewAdded(child);
+        if (child instanceof AppBarLayout) {
+            // If no behavior was set through XML, use our own before the default one is
+            // resolved (in onMeasure) and before any state is restored into it.
+            LayoutParams params = (LayoutParams) child.getLayoutParams();
+            if (params.getBehavior() == null) params.setBehavior(new AppBarLockBehavior());
+        }
+        if (scrollabilityTracker != null) scrollabilityTracker.invalidate();
+        // The new view has not seen any insets yet.
+        invalidateInsets();
+    }
+
+    @Override
+    public void requestFitSystemWindows() {
+        // This is what requestApplyInsets() calls, from anywhere in the sheet.
+        // The insets will be the same, but someone needs them again.
+        invalidateInsets();
+        super.requestFitSystemWindows();
+    }
+
+    private void invalidateInsets() {
+        ViewGroup.LayoutParams params = getLayoutParams();
+        if (params instanceof LayoutParams) {
+            Behavior behavior = ((LayoutParams) params).getBehavior();
+            if (behavior instanceof BottomSheetInsetsBehavior) {
+                ((BottomSheetInsetsBehavior) behavior).invalidateInsets();
+            }
+        }
+    }
+
+    @Override
+    public void onViewRemoved(View child) {
+        super.onViewRemoved(child);
+        if (scrollabilityTracker != null) scrollabilityTracker.invalidate();
+    }
+
     /**
      * Set a {@link android.support.design.widget.BottomSheetBehavior.BottomSheetCallback} callback
      * to our behavior, as soon as it is available.
@@ -126,23 +240,47 @@ public class BottomSheetCoordinatorLayout extends CoordinatorLayout implements
      * @param bottomSheetCallback desired callback.
      */
     public void setBottomSheetCallback(final BottomSheetBehavior.BottomSheetCallback bottomSheetCallback) {
-        if (bottomSheetBehavior == null) {
-            delayedBottomSheetCallback = bottomSheetCallback;
-        } else {
+        if (bottomSheetBehavior != null) {
             bottomSheetBehavior.setBottomSheetCallback(bottomSheetCallback);
+        } else {
+            pendingEdits.setBottomSheetCallback(bottomSheetCallback);
         }
     }
 
+    /**
+     * Adds a {@link android.support.design.widget.BottomSheetBehavior.BottomSheetCallback}
+     * to this sheet. Unlike {@link #setBottomSheetCallback(BottomSheetBehavior.BottomSheetCallback)},
+     * any number of callbacks can be added, and this can be called before the behavior is available.
+     *
+     * onSlide is called at most once per frame, with the latest offset, before that frame is drawn,
+     * rather than for each pixel of movement. onStateChanged is called for every state change, in order,
+     * after any pending onSlide.
+     *
+     * @param callback the callback to add
+     */
+    public void addBottomSheetCallback(@NonNull BottomSheetBehavior.BottomSheetCallback callback) {
+        callbackDispatcher.add(callback);
+    }
+
+    /**
+     * Removes a callback added with {@link #addBottomSheetCallback(BottomSheetBehavior.BottomSheetCallback)}.
+     *
+     * @param callback the callback to remove
+     */
+    public void removeBottomSheetCallback(@NonNull BottomSheetBehavior.BottomSheetCallback callback) {
+        callbackDispatcher.remove(callback);
+    }
+
     /**
      * Set the hideable flag to our behavior, as soon as it is available.
      *
      * @param hideable whether it will be hideable
      */
     public void setHideable(boolean hideable) {
-        if (bottomSheetBehavior == null) {
-            delayedHideable = hideable;
-        } else {
+        if (bottomSheetBehavior != null) {
             bottomSheetBehavior.setHideable(hideable);
+        } else {
+            pendingEdits.setHideable(hideable);
         }
     }
 
@@ -152,10 +290,10 @@ public class BottomSheetCoordinatorLayout extends CoordinatorLayout implements
      * @param skipCollapsed whether to skip the collapsed state
      */
     public void setSkipCollapsed(boolean skipCollapsed) {
-        if (bottomSheetBehavior == null) {
-            delayedSkipCollapsed = skipCollapsed;
-        } else {
+        if (bottomSheetBehavior != null) {
             bottomSheetBehavior.setSkipCollapsed(skipCollapsed);
+        } else {
+            pendingEdits.setSkipCollapsed(skipCollapsed);
         }
     }
 
@@ -165,10 +303,174 @@ public class BottomSheetCoordinatorLayout extends CoordinatorLayout implements
      * @param state the new state
      */
     public void setState(int state) {
-        if (bottomSheetBehavior == null) {
-            delayedState = state;
+        BottomSheetCoordinatorBehavior behavior = bottomSheetBehavior;
+        if (behavior == null) {
+            pendingEdits.setState(state);
+            return;
+        }
+        if (state == BottomSheetCoordinatorBehavior.STATE_COLLAPSED && behavior.leaveSnapAnchor()) {
+            requestLayout();
+        }
+        if (state != behavior.getState()) settle(behavior, state, false);
+    }
+
+    /**
+     * Returns an editor to change several behavior properties at once.
+     * Changes are applied together, with a single settle, when {@link SheetEditor#apply()}
+     * is called, or as soon as the behavior is available.
+     *
+     * Each call returns a new editor.
+     *
+     * @return the editor
+     */
+    @NonNull
+    public SheetEditor edit() {
+        return new SheetEditor(this);
+    }
+
+    /**
+     * Called by {@link SheetEditor#apply()}.
+     */
+    void applyEdits(@NonNull SheetEditor edits) {
+        if (bottomSheetBehavior != null) {
+            applyEdits(edits, false);
         } else {
-            bottomSheetBehavior.setState(state);
+            pendingEdits.merge(edits);
+            edits.clear();
+        }
+    }
+
+    private void applyEdits(@NonNull SheetEditor edits, boolean initial) {
+        // Read everything and clear before touching the behavior. setState() dispatches
+        // the new state synchronously, and callbacks might edit the sheet again.
+        int flags = edits.flags;
+        int state = edits.state;
+        boolean hideable = edits.hideable;
+        boolean skipCollapsed = edits.skipCollapsed;
+        int peekHeight = edits.peekHeight;
+        BottomSheetBehavior.BottomSheetCallback callback = edits.callback;
+        edits.clear();
+
+        BottomSheetCoordinatorBehavior behavior = bottomSheetBehavior;
+        if ((flags & SheetEditor.FLAG_CALLBACK) != 0) {
+            behavior.setBottomSheetCallback(callback);
+        }
+        if ((flags & SheetEditor.FLAG_SKIP_COLLAPSED) != 0) {
+            behavior.setSkipCollapsed(skipCollapsed);
+        }
+        if ((flags & SheetEditor.FLAG_HIDEABLE) != 0) {
+            behavior.setHideable(hideable);
+        }
+        boolean hasPeek = (flags & SheetEditor.FLAG_PEEK_HEIGHT) != 0;
+        boolean setsState = (flags & SheetEditor.FLAG_STATE) != 0;
+        if (hasPeek || (setsState && state == BottomSheetCoordinatorBehavior.STATE_COLLAPSED)) {
+            // Collapsing means the real collapsed offset, not a snap anchor.
+            if (behavior.leaveSnapAnchor()) requestLayout();
+        }
+        boolean hasState = setsState && state != behavior.getState();
+        // If we are going to collapse, the new peek height must be there before settling.
+        // Otherwise, set it after settling started: it will be picked up without a layout.
+        boolean peekFirst = hasPeek && (!hasState || state == BottomSheetCoordinatorBehavior.STATE_COLLAPSED);
+        if (peekFirst) behavior.setPeekHeight(peekHeight);
+        if (hasState) settle(behavior, state, initial); // Must come after hideable and skipCollapsed.
+        if (hasPeek && !peekFirst) behavior.setPeekHeight(peekHeight);
+    }
+
+    private void settle(@NonNull BottomSheetCoordinatorBehavior behavior, int state, boolean initial) {
+        if (!initial) {
+            beginTransition();
+            behavior.setRequestedState(state);
+        }
+        behavior.setState(state);
+    }
+
+    /**
+     * When enabled, this layout is moved onto a hardware layer while the sheet is dragging
+     * or settling, so that its content is not redrawn at each frame. The original layer type
+     * is restored when the sheet settles. If the content keeps invalidating while moving,
+     * the layer is dropped until the next gesture.
+     *
+     * Defaults to false.
+     *
+     * @param enabled whether to use a hardware layer while moving
+     */
+    public void setUseHardwareLayerWhileMoving(boolean enabled) {
+        layerPromoter.setEnabled(enabled);
+    }
+
+    /**
+     * Returns whether a hardware layer is used while moving.
+     * @see #setUseHardwareLayerWhileMoving(boolean)
+     *
+     * @return true if enabled
+     */
+    public boolean getUseHardwareLayerWhileMoving() {
+        return layerPromoter.isEnabled();
+    }
+
+    /**
+     * Returns the number of frames, while moving, that were rendered from the hardware
+     * layer without redrawing this layout.
+     * @see #setUseHardwareLayerWhileMoving(boolean)
+     *
+     * @return frames rendered from the layer
+     */
+    public int getHardwareLayerFrameCount() {
+        return layerPromoter.getLayerFrameCount();
+    }
+
+    /**
+     * When enabled, children are not measured, laid out or drawn while the sheet is
+     * in {@link BottomSheetBehavior#STATE_HIDDEN}. This is useful when there are several
+     * hidden sheets on screen.
+     *
+     * When the sheet leaves the hidden state, the last measurements are reused, unless
+     * something changed while it was hidden: in that case, a single layout is requested.
+     *
+     * Defaults to false.
+     *
+     * @param skip whether to skip passes while hidden
+     */
+    public void setSkipPassesWhenHidden(boolean skip) {
+        skipPassesWhenHidden = skip;
+        if (!skip) onLeaveHidden();
+    }
+
+    /**
+     * Returns whether passes are skipped while hidden.
+     * @see #setSkipPassesWhenHidden(boolean)
+     *
+     * @return true if enabled
+     */
+    public boolean getSkipPassesWhenHidden() {
+        return skipPassesWhenHidden;
+    }
+
+    /**
+     * Returns the number of measure, layout and draw passes that were skipped
+     * because the sheet was hidden.
+     * @see #setSkipPassesWhenHidden(boolean)
+     *
+     * @return the skipped passes count
+     */
+    public int getSkippedPassCount() {
+        return skippedPasses;
+    }
+
+    private boolean isSkippingHiddenPasses() {
+        // We need at least one real measure, and our behavior.
+        return skipPassesWhenHidden && bottomSheetBehavior != null
+                && bottomSheetBehavior.getState() == BottomSheetCoordinatorBehavior.STATE_HIDDEN;
+    }
+
+    private void onLeaveHidden() {
+        if (skippedLayoutWhileHidden) {
+            skippedLayoutWhileHidden = false;
+            requestLayout();
+        }
+        if (skippedDrawWhileHidden) {
+            skippedDrawWhileHidden = false;
+            invalidate();
         }
     }
 
@@ -206,6 +508,229 @@ public class BottomSheetCoordinatorLayout extends CoordinatorLayout implements
         return bottomSheetBehavior != null ? bottomSheetBehavior.getState() : -1;
     }
 
+    /**
+     * Creates content for {@link #setDeferredContent(ContentFactory)}.
+     */
+    public interface ContentFactory {
+
+        /**
+         * Creates the content view. It will be added to the sheet as its last child.
+         *
+         * @param inflater an inflater
+         * @param sheet this sheet
+         * @return the content view
+         */
+        @NonNull
+        View createContent(@NonNull LayoutInflater inflater, @NonNull BottomSheetCoordinatorLayout sheet);
+    }
+
+    /**
+     * Listener for deferred content.
+     * @see #setOnDeferredContentListener(OnDeferredContentListener)
+     */
+    public interface OnDeferredContentListener {
+
+        /**
+         * Called when deferred content was added to the sheet.
+         *
+         * @param sheet this sheet
+         * @param content the content view
+         * @param late true if the content was not ready when the sheet needed it,
+         *             so it was created synchronously while the sheet was moving
+         */
+        void onDeferredContentAdded(@NonNull BottomSheetCoordinatorLayout sheet, @NonNull View content, boolean late);
+    }
+
+    /**
+     * Sets a layout resource that will be inflated and added to this sheet later:
+     * when the main thread is first idle after the sheet is attached, or, at the latest,
+     * when the sheet first leaves the collapsed or hidden state.
+     *
+     * @param layoutRes the content layout
+     */
+    public void setDeferredContent(@LayoutRes int layoutRes) {
+        deferredContent.set(layoutRes, null);
+    }
+
+    /**
+     * Same as {@link #setDeferredContent(int)}, but content is created by the given factory.
+     *
+     * @param factory the content factory
+     */
+    public void setDeferredContent(@NonNull ContentFactory factory) {
+        deferredContent.set(0, factory);
+    }
+
+    /**
+     * Sets a listener that is notified when deferred content is added,
+     * and whether it was ready in time.
+     *
+     * @param listener the listener, or null
+     */
+    public void setOnDeferredContentListener(@Nullable OnDeferredContentListener listener) {
+        deferredContent.setListener(listener);
+    }
+
+    /**
+     * Listener for per-gesture frame timings.
+     * @see #addOnGestureMetricsListener(OnGestureMetricsListener)
+     */
+    public interface OnGestureMetricsListener {
+
+        /**
+         * Called when the sheet reaches a stable state after dragging or settling.
+         * The metrics object is reused, so values should be copied if needed later.
+         *
+         * @param sheet this sheet
+         * @param metrics the gesture metrics
+         */
+        void onGestureMetrics(@NonNull BottomSheetCoordinatorLayout sheet, @NonNull GestureMetrics metrics);
+    }
+
+    /**
+     * Adds a listener that will receive frame timings for each sheet gesture.
+     * Frames are only observed while at least one listener is registered, and only
+     * on API 16+, where {@link android.view.Choreographer} is available.
+     *
+     * @param listener the listener
+     */
+    public void addOnGestureMetricsListener(@NonNull OnGestureMetricsListener listener) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+        if (gestureMetricsListeners.contains(listener)) return;
+        gestureMetricsListeners.add(listener);
+        if (frameMetricsTracker == null) {
+            frameMetricsTracker = new FrameMetricsTracker(this, new FrameMetricsTracker.Callback() {
+                @Override
+                public void onGestureMetrics(GestureMetrics metrics) {
+                    for (int i = 0; i < gestureMetricsListeners.size(); i++) {
+                        gestureMetricsListeners.get(i).onGestureMetrics(BottomSheetCoordinatorLayout.this, metrics);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Removes a listener previously added with {@link #addOnGestureMetricsListener(OnGestureMetricsListener)}.
+     *
+     * @param listener the listener
+     */
+    public void removeOnGestureMetricsListener(@NonNull OnGestureMetricsListener listener) {
+        gestureMetricsListeners.remove(listener);
+        if (gestureMetricsListeners.isEmpty() && frameMetricsTracker != null) {
+            frameMetricsTracker.release();
+            frameMetricsTracker = null;
+        }
+    }
+
+    /**
+     * Listener for sheet motion. Useful to pause expensive work (prefetching, binding, decoding)
+     * while the sheet moves. See {@link RecyclerViewPauser} for a ready-made one.
+     * @see #addOnSheetMotionListener(OnSheetMotionListener)
+     */
+    public interface OnSheetMotionListener {
+
+        /**
+         * Called when the sheet starts dragging, starts settling, or stops.
+         *
+         * @param sheet this sheet
+         * @param motion one of {@link #MOTION_IDLE}, {@link #MOTION_DRAGGING}, {@link #MOTION_SETTLING}
+         * @param velocity the current sheet velocity in px/s, positive when moving down
+         */
+        void onSheetMotionChanged(@NonNull BottomSheetCoordinatorLayout sheet, int motion, float velocity);
+    }
+
+    /**
+     * Adds a listener that will be notified when the sheet motion changes.
+     *
+     * @param listener the listener
+     */
+    public void addOnSheetMotionListener(@NonNull OnSheetMotionListener listener) {
+        motionTracker.add(listener);
+    }
+
+    /**
+     * Removes a listener previously added with {@link #addOnSheetMotionListener(OnSheetMotionListener)}.
+     *
+     * @param listener the listener
+     */
+    public void removeOnSheetMotionListener(@NonNull OnSheetMotionListener listener) {
+        motionTracker.remove(listener);
+    }
+
+    /**
+     * Returns the current motion state.
+     *
+     * @return one of {@link #MOTION_IDLE}, {@link #MOTION_DRAGGING}, {@link #MOTION_SETTLING}
+     */
+    public int getSheetMotion() {
+        return motionTracker.getMotion();
+    }
+
+    /**
+     * Returns the current sheet velocity, estimated from its recent offsets.
+     *
+     * @return the velocity in px/s, positive when moving down, or 0 if idle
+     */
+    public float getSheetVelocity() {
+        return motionTracker.getVelocity();
+    }
+
+    @Nullable
+    FrameMetricsTracker getFrameMetricsTracker() {
+        return frameMetricsTracker;
+    }
+
+    /**
+     * Called by {@link BottomSheetCoordinatorBehavior} when the sheet state changes.
+     */
+    void onSheetStateChanged(int state) {
+        if (state != BottomSheetCoordinatorBehavior.STATE_HIDDEN) onLeaveHidden();
+        if (appBarBehavior instanceof AppBarLockBehavior) {
+            ((AppBarLockBehavior) appBarBehavior).setLocked(state != BottomSheetCoordinatorBehavior.STATE_EXPANDED);
+        }
+        if (frameMetricsTracker != null) frameMetricsTracker.onSheetStateChanged(state);
+        // Motion first: listeners such as RecyclerViewPauser must unfreeze the content
+        // before FlingHandoff flings it.
+        motionTracker.onSheetStateChanged(state);
+        flingHandoff.onSheetStateChanged(state);
+        layerPromoter.onSheetStateChanged(state);
+        callbackDispatcher.onStateChanged(state);
+        deferredContent.onSheetState(state);
+        if (state == BottomSheetCoordinatorBehavior.STATE_DRAGGING
+                || state == BottomSheetCoordinatorBehavior.STATE_SETTLING) {
+            beginTransition();
+        } else if (!inRestoreTransition) {
+            endTransition(state, false);
+        }
+    }
+
+    /**
+     * Called by {@link BottomSheetCoordinatorBehavior} when the sheet moves.
+     */
+    void onSheetSlide(float slideOffset) {
+        if (frameMetricsTracker != null) frameMetricsTracker.onSheetSlide();
+        motionTracker.onSheetSlide();
+        callbackDispatcher.onSlide(slideOffset);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        deferredContent.onAttached();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        deferredContent.onDetached();
+        scrollabilityTracker.release();
+        layerPromoter.release();
+        motionTracker.release();
+        callbackDispatcher.flushSlide();
+        if (frameMetricsTracker != null) frameMetricsTracker.release();
+    }
+
     @Override
     public final void onOffsetChanged(AppBarLayout appBarLayout, int verticalOffset) {
         if (verticalOffset == appBarOffset) {
@@ -213,106 +738,205 @@ public class BottomSheetCoordinatorLayout extends CoordinatorLayout implements
         } else if (bottomSheetBehavior.getState() != BottomSheetCoordinatorBehavior.STATE_EXPANDED) {
             // We are trying to set a new offset, but it shouldn't change because the sheet
             // is not expanded. Let's get back to old offset.
+            // With AppBarLockBehavior this only happens for programmatic changes
+            // (e.g. setExpanded()), since scrolls and drags are rejected before.
             appBarBehavior.setTopAndBottomOffset(appBarOffset);
         } else {
             // we are trying to set a new offset, and sheet is expanded. Keep track of it.
             appBarOffset = verticalOffset;
+            GestureTraceRecorder recorder = bottomSheetBehavior.getGestureTraceRecorder();
+            if (recorder != null) recorder.recordAppBarOffset(verticalOffset);
         }
     }
 
     /**
      * If we have an app bar, we can simply use the appBarOffset.
-     * If we have no app bar... TODO
+     * If we have no app bar, we ask the scrollability tracker, which follows
+     * the first scrolling child (if any) through scroll listeners.
      */
     boolean canScrollUp() {
         if (hasAppBar) {
             return appBarOffset != 0;
         } else {
-            return true;
+            return !scrollabilityTracker.isAtTop();
         }
     }
 
+    int getAppBarOffset() {
+        return appBarOffset;
+    }
+
+    /**
+     * Called when restoring state. AppBarLayout restores its own offset, so we just
+     * have to keep in sync, or onOffsetChanged would snap it back.
+     * This also starts a restore transition, that ends at the first draw.
+     */
+    void onSheetRestored(int appBarOffset) {
+        this.appBarOffset = appBarOffset;
+        inTransition = false;
+        beginTransition();
+        transitionFromState = -1;
+        inRestoreTransition = true;
+    }
+
+    /**
+     * Called by {@link GestureTraceRecorder} when replaying an app bar offset.
+     */
+    void onReplayAppBarOffset(int offset) {
+        appBarOffset = offset;
+    }
+
+    private void beginTransition() {
+        if (inTransition) return;
+        inTransition = true;
+        transitionFromState = getState();
+        transitionMeasurePasses = measurePasses;
+        transitionLayoutPasses = layoutPasses;
+        transitionDrawPasses = drawPasses;
+    }
+
+    private void endTransition(int state, boolean restore) {
+        if (!inTransition) return;
+        inTransition = false;
+        transitionStats.fromState = transitionFromState;
+        transitionStats.toState = state;
+        transitionStats.restore = restore;
+        transitionStats.measurePasses = measurePasses - transitionMeasurePasses;
+        transitionStats.layoutPasses = layoutPasses - transitionLayoutPasses;
+        transitionStats.drawPasses = drawPasses - transitionDrawPasses;
+    }
+
+    /**
+     * Returns the measure, layout and draw passes of the last state transition.
+     * The returned object is reused, and it is updated when the next transition ends.
+     *
+     * @return passes of the last transition
+     */
+    @NonNull
+    public LayoutPassStats getLastTransitionStats() {
+        return transitionStats;
+    }
+
     boolean hasAppBar() {
         return hasAppBar;
     }
 
-    /**
-     * This behavior is assigned to our dummy, MATCH_PARENT view inside this bottom sheet layout.
-     * Through this behavior the dummy view can listen to touch/scroll events.
-     * Our goal is to propagate them to the sheet behavior (the BottomSheetBehavior
-     * that controls the bottom sheet position),
+    /*
+     * Nested scrolling.
      *
-     * It has to be done manually because nested scrolls/fling events are coordinated by coordinator
-     * layouts. If the bottom sheet view does not support nested scrolling (and CoordinatorLayout doesn't)
-     * any event that takes place inside the sheet is confined to sheet itself.
-     * This way inner events never reach the BottomSheetBehavior.
+     * Nested scrolls/flings are coordinated by coordinator layouts. If the bottom sheet view did not
+     * forward them, any event that takes place inside the sheet would be confined to the sheet itself,
+     * and would never reach the BottomSheetBehavior that controls the bottom sheet position.
      *
-     * Another option would be to make a CoordinatorLayout class that actually implements
-     * NestedScrollingChild and thus propagates events to the outer CoordinatorLayout: this, then,
-     * could propagate the events to BottomSheetBehavior. I was not able to make that work.
+     * So, as a NestedScrollingParent2, we first forward the event to the sheet behavior, according to
+     * shouldForwardEvent(), and only then let our own behaviors (e.g. the app bar) react through super.
+     * This way shouldForwardEvent() looks at the sheet state and app bar offset as they were before
+     * this event, not after the app bar has already scrolled because of it. For pre-scrolls, the two
+     * consumptions are then merged, taking the largest one.
      *
-     * @param <DummyView> make sure it's not a nested-scrolling-enabled view or this will break.
+     * Non-touch (fling) nested scrolls are not forwarded, but they are used by {@link FlingHandoff}
+     * to pass momentum between the inner content and the sheet.
      */
-    private static class DummyBehavior<DummyView extends View> extends CoordinatorLayout.Behavior<DummyView> {
 
-        public DummyBehavior() {}
+    private boolean shouldForwardEvent(boolean fingerGoingUp) {
+        if (bottomSheetBehavior == null) return false;
+        int state = getState();
+        switch (state) {
+            case BottomSheetCoordinatorBehavior.STATE_EXPANDED:
+                // If sheet is expanded, we only want to forward if the appBar is expanded.
+                // AND the touch is going down...
+                return !canScrollUp() && !fingerGoingUp;
+            case BottomSheetCoordinatorBehavior.STATE_COLLAPSED:
+            case BottomSheetCoordinatorBehavior.STATE_DRAGGING:
+            case BottomSheetCoordinatorBehavior.STATE_SETTLING:
+                return true;
+            default:
+                return false;
+        }
+    }
 
-        public DummyBehavior(Context context, AttributeSet attrs) {
-            super(context, attrs);
+    @Override
+    public boolean onStartNestedScroll(@NonNull View child, @NonNull View target, int nestedScrollAxes, int type) {
+        boolean sheetAccepted;
+        if (type == ViewCompat.TYPE_NON_TOUCH) {
+            // A fling of the inner content. Listen to it while expanded,
+            // so we can hand its momentum to the sheet when it reaches the top.
+            sheetAccepted = bottomSheetBehavior != null
+                    && (nestedScrollAxes & ViewCompat.SCROLL_AXIS_VERTICAL) != 0
+                    && getState() == BottomSheetCoordinatorBehavior.STATE_EXPANDED;
+            sheetAcceptedFlingScroll = sheetAccepted;
+        } else {
+            flingHandoff.reset();
+            sheetAccepted = shouldForwardEvent(false)
+                    && bottomSheetBehavior.onStartNestedScroll(this, this, child, target, nestedScrollAxes, type);
+            sheetAcceptedTouchScroll = sheetAccepted;
         }
+        boolean handled = super.onStartNestedScroll(child, target, nestedScrollAxes, type);
+        return handled || sheetAccepted;
+    }
 
-        private boolean shouldForwardEvent(BottomSheetCoordinatorLayout sheet, boolean fingerGoingUp) {
-            int state = sheet.getState();
-            switch (state) {
-                case BottomSheetCoordinatorBehavior.STATE_EXPANDED:
-                    // If sheet is expanded, we only want to forward if the appBar is expanded.
-                    // AND the touch is going down...
-                    return !sheet.canScrollUp() && !fingerGoingUp;
-                case BottomSheetCoordinatorBehavior.STATE_COLLAPSED:
-                case BottomSheetCoordinatorBehavior.STATE_DRAGGING:
-                case BottomSheetCoordinatorBehavior.STATE_SETTLING:
-                    return true;
-                default:
-                    return false;
-            }
+    @Override
+    public void onNestedPreScroll(@NonNull View target, int dx, int dy, @NonNull int[] consumed, int type) {
+        // When moving the finger up, dy is > 0.
+        boolean forward = type == ViewCompat.TYPE_TOUCH && sheetAcceptedTouchScroll && shouldForwardEvent(dy > 0);
+        if (forward) {
+            sheetConsumed[0] = 0;
+            sheetConsumed[1] = 0;
+            bottomSheetBehavior.onNestedPreScroll(this, this, target, dx, dy, sheetConsumed, type);
+        }
+        super.onNestedPreScroll(target, dx, dy, consumed, type);
+        if (forward) {
+            // Same as CoordinatorLayout does with its behaviors: take the largest consumption.
+            consumed[0] = dx > 0 ? Math.max(consumed[0], sheetConsumed[0]) : Math.min(consumed[0], sheetConsumed[0]);
+            consumed[1] = dy > 0 ? Math.max(consumed[1], sheetConsumed[1]) : Math.min(consumed[1], sheetConsumed[1]);
         }
+    }
 
-        @Override
-        public boolean onStartNestedScroll(CoordinatorLayout coordinatorLayout, DummyView child, View directTargetChild, View target, int nestedScrollAxes) {
-            BottomSheetCoordinatorLayout sheet = (BottomSheetCoordinatorLayout) coordinatorLayout;
-            if (shouldForwardEvent(sheet, false)) {
-                return sheet.getBehavior().onStartNestedScroll(coordinatorLayout, sheet, directTargetChild, target, nestedScrollAxes);
-            } else {
-                return false;
-            }
+    @Override
+    public void onNestedScroll(@NonNull View target, int dxConsumed, int dyConsumed, int dxUnconsumed, int dyUnconsumed, int type) {
+        if (type == ViewCompat.TYPE_NON_TOUCH) {
+            if (sheetAcceptedFlingScroll) flingHandoff.onContentFlingScroll(this, dyUnconsumed);
+        } else if (sheetAcceptedTouchScroll && shouldForwardEvent(dyUnconsumed > 0)) {
+            bottomSheetBehavior.onNestedScroll(this, this, target,
+                    dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed, type);
         }
+        super.onNestedScroll(target, dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed, type);
+    }
 
-        @Override
-        public void onNestedPreScroll(CoordinatorLayout coordinatorLayout, DummyView child, View target, int dx, int dy, int[] consumed) {
-            // When moving the finger up, dy is > 0.
-            BottomSheetCoordinatorLayout sheet = (BottomSheetCoordinatorLayout) coordinatorLayout;
-            if (shouldForwardEvent(sheet, dy > 0)) {
-                sheet.getBehavior().onNestedPreScroll(coordinatorLayout,
-                        sheet, target, dx, dy, consumed);
+    @Override
+    public void onStopNestedScroll(@NonNull View target, int type) {
+        if (type == ViewCompat.TYPE_NON_TOUCH) {
+            sheetAcceptedFlingScroll = false;
+        } else {
+            if (sheetAcceptedTouchScroll && shouldForwardEvent(false)) {
+                bottomSheetBehavior.onStopNestedScroll(this, this, target, type);
             }
+            sheetAcceptedTouchScroll = false;
         }
+        super.onStopNestedScroll(target, type);
+    }
 
-        @Override
-        public void onStopNestedScroll(CoordinatorLayout coordinatorLayout, DummyView child, View target) {
-            BottomSheetCoordinatorLayout sheet = (BottomSheetCoordinatorLayout) coordinatorLayout;
-            if (shouldForwardEvent(sheet, false)) {
-                sheet.getBehavior().onStopNestedScroll(coordinatorLayout, sheet, target);
-            }
+    @Override
+    public boolean onNestedPreFling(@NonNull View target, float velocityX, float velocityY) {
+        boolean sheetConsumedFling = false;
+        if (sheetAcceptedTouchScroll && shouldForwardEvent(velocityY > 0)) {
+            sheetConsumedFling = bottomSheetBehavior.onNestedPreFling(this, this, target, velocityX, velocityY);
+            // The sheet took this fling to move. Give the rest back to the content later.
+            if (sheetConsumedFling) flingHandoff.onSheetConsumedFling(target, velocityY);
         }
+        boolean handled = super.onNestedPreFling(target, velocityX, velocityY);
+        // If nobody took it, the content is going to fling.
+        if (!handled && !sheetConsumedFling) flingHandoff.onContentFling(target, velocityY);
+        return handled || sheetConsumedFling;
+    }
 
-        @Override
-        public boolean onNestedPreFling(CoordinatorLayout coordinatorLayout, DummyView child, View target, float velocityX, float velocityY) {
-            BottomSheetCoordinatorLayout sheet = (BottomSheetCoordinatorLayout) coordinatorLayout;
-            if (shouldForwardEvent(sheet, velocityY > 0)) {
-                return sheet.getBehavior().onNestedPreFling(coordinatorLayout, sheet, target, velocityX, velocityY);
-            } else {
-                return false;
-            }
+    @Override
+    public boolean onNestedFling(@NonNull View target, float velocityX, float velocityY, boolean consumed) {
+        boolean sheetHandled = false;
+        if (sheetAcceptedTouchScroll && shouldForwardEvent(velocityY > 0)) {
+            sheetHandled = bottomSheetBehavior.onNestedFling(this, this, target, velocityX, velocityY, consumed);
         }
+        boolean handled = super.onNestedFling(target, velocityX, velocityY, consumed);
+        return handled || sheetHandled;
     }
 }
@@ -1,6 +1,7 @@
 package com.otaliastudios.bottomsheetcoordinatorlayout;
 
 import android.content.Context;
+import android.os.Build;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
@@ -10,16 +11,20 @@ import android.support.v4.os.ParcelableCompat;
 import android.support.v4.os.ParcelableCompatCreatorCallbacks;
 import android.support.v4.view.AbsSavedState;
 import android.support.v4.view.ViewCompat;
+import android.support.v4.view.ViewPropertyAnimatorListenerAdapter;
+import android.support.v4.view.ViewPropertyAnimatorUpdateListener;
 import android.support.v4.view.WindowInsetsCompat;
+import android.support.v4.view.animation.FastOutSlowInInterpolator;
 import android.util.AttributeSet;
 import android.view.View;
-
-import java.lang.reflect.Field;
+import android.view.animation.Interpolator;
 
 /**
  * This:
  * - tries to fix the hideable bug
+ * - saves the target of an in-flight settle, rather than the settling state
  * - ensures that any inset is passed to our bottom sheet view before it is consumed by some other.
+ * - optionally, animates keyboard insets on an expanded sheet, rather than jumping to them.
  *
  * @param <V> bottom sheet root view, typically {@link BottomSheetCoordinatorLayout}
  */
@@ -27,6 +32,28 @@ import java.lang.reflect.Field;
 public class BottomSheetInsetsBehavior<V extends View> extends BottomSheetBehavior<V> {
     private final static String TAG = BottomSheetInsetsBehavior.class.getSimpleName();
 
+    private int requestedState = -1;
+
+    // Collapsed offset from the last layout in STATE_COLLAPSED, and what it depends on.
+    private int laidOutCollapsedTop = -1;
+    private int laidOutParentWidth, laidOutParentHeight, laidOutChildHeight, laidOutPeekHeight;
+
+    // Last dispatched insets. Holding ints rather than the object, which might be mutable.
+    private boolean hasLastInsets;
+    private boolean lastInsetsConsumed;
+    private int lastInsetLeft, lastInsetTop, lastInsetRight, lastInsetBottom;
+    private int lastStableInsetLeft, lastStableInsetTop, lastStableInsetRight, lastStableInsetBottom;
+    private int appliedInsetsCount;
+    private int skippedInsetsCount;
+
+    // Keyboard inset animation. Close to the IME animation on most devices.
+    private final static long IME_ANIMATION_DURATION = 250;
+    private final static Interpolator IME_INTERPOLATOR = new FastOutSlowInInterpolator();
+    private boolean animateImeInsets;
+    private View imeAnimatedView;
+    private View imeAnimatedAppBar;
+    private WindowInsetsCompat pendingInsets;
+
     public BottomSheetInsetsBehavior() {}
 
     public BottomSheetInsetsBehavior(Context context, AttributeSet attrs) {
@@ -36,24 +63,281 @@ public class BottomSheetInsetsBehavior<V extends View> extends BottomSheetBehavi
     @NonNull
     @Override
     public WindowInsetsCompat onApplyWindowInsets(CoordinatorLayout coordinatorLayout, V child, WindowInsetsCompat insets) {
-        // Steal the inset and dispatch to view.
-        ViewCompat.dispatchApplyWindowInsets(child, insets);
+        if (isSameAsLastInsets(insets)) {
+            // The child subtree already has these. Don't run inset handling and layout again.
+            skippedInsetsCount++;
+        } else {
+            int imeDelta = getImeDelta(child, insets);
+            endImeAnimation();
+            if (imeDelta != 0) {
+                // Keyboard is opening or closing. Move with it, and lay out with the new insets only
+                // at the end, when the translation is dropped: the content is then where it was.
+                pendingInsets = insets;
+                startImeAnimation(child, -imeDelta);
+            } else {
+                // Steal the inset and dispatch to view.
+                ViewCompat.dispatchApplyWindowInsets(child, insets);
+                appliedInsetsCount++;
+            }
+            storeLastInsets(insets);
+        }
         // Pass unconsumed insets.
         return super.onApplyWindowInsets(coordinatorLayout, child, insets);
     }
 
+    private boolean isSameAsLastInsets(WindowInsetsCompat insets) {
+        return hasLastInsets
+                && lastInsetsConsumed == insets.isConsumed()
+                && lastInsetLeft == insets.getSystemWindowInsetLeft()
+                && lastInsetTop == insets.getSystemWindowInsetTop()
+                && lastInsetRight == insets.getSystemWindowInsetRight()
+                && lastInsetBottom == insets.getSystemWindowInsetBottom()
+                && lastStableInsetLeft == insets.getStableInsetLeft()
+                && lastStableInsetTop == insets.getStableInsetTop()
+                && lastStableInsetRight == insets.getStableInsetRight()
+                && lastStableInsetBottom == insets.getStableInsetBottom();
+    }
+
+    private void storeLastInsets(WindowInsetsCompat insets) {
+        hasLastInsets = true;
+        lastInsetsConsumed = insets.isConsumed();
+        lastInsetLeft = insets.getSystemWindowInsetLeft();
+        lastInsetTop = insets.getSystemWindowInsetTop();
+        lastInsetRight = insets.getSystemWindowInsetRight();
+        lastInsetBottom = insets.getSystemWindowInsetBottom();
+        lastStableInsetLeft = insets.getStableInsetLeft();
+        lastStableInsetTop = insets.getStableInsetTop();
+        lastStableInsetRight = insets.getStableInsetRight();
+        lastStableInsetBottom = insets.getStableInsetBottom();
+    }
+
+    /**
+     * Returns the change in keyboard inset, if we should animate it.
+     * We only do so for an expanded sheet, when nothing other than the bottom inset changed.
+     */
+    private int getImeDelta(V child, WindowInsetsCompat insets) {
+        if (!animateImeInsets
+                || Build.VERSION.SDK_INT < 19 // No update listener
+                || !hasLastInsets
+                || getState() != STATE_EXPANDED
+                || !ViewCompat.isLaidOut(child)
+                || lastInsetsConsumed != insets.isConsumed()
+                || lastInsetLeft != insets.getSystemWindowInsetLeft()
+                || lastInsetTop != insets.getSystemWindowInsetTop()
+                || lastInsetRight != insets.getSystemWindowInsetRight()) {
+            return 0;
+        }
+        return insets.getSystemWindowInsetBottom() - lastInsetBottom;
+    }
+
+    private void startImeAnimation(V child, float toTranslation) {
+        imeAnimatedView = child;
+        if (child instanceof BottomSheetCoordinatorLayout) {
+            imeAnimatedAppBar = ((BottomSheetCoordinatorLayout) child).findAppBar();
+        }
+        child.setTranslationY(0);
+        imeUpdateListener.onAnimationUpdate(child);
+        ViewCompat.animate(child)
+                .translationY(toTranslation)
+                .setDuration(IME_ANIMATION_DURATION)
+                .setInterpolator(IME_INTERPOLATOR)
+                .setUpdateListener(imeUpdateListener)
+                .setListener(imeListener)
+                .start();
+    }
+
+    private void endImeAnimation() {
+        if (imeAnimatedView != null) {
+            // This ends up in imeListener.
+            ViewCompat.animate(imeAnimatedView).cancel();
+        }
+    }
+
+    // Keeps the app bar in place while the sheet moves, so that only the bottom follows the keyboard.
+    private final ViewPropertyAnimatorUpdateListener imeUpdateListener = new ViewPropertyAnimatorUpdateListener() {
+        @Override
+        public void onAnimationUpdate(View view) {
+            if (imeAnimatedAppBar != null) imeAnimatedAppBar.setTranslationY(-view.getTranslationY());
+        }
+    };
+
+    private final ViewPropertyAnimatorListenerAdapter imeListener = new ViewPropertyAnimatorListenerAdapter() {
+        @Override
+        public void onAnimationEnd(View view) {
+            if (imeAnimatedView == null) return; // Cancelled, then ended.
+            imeAnimatedView = null;
+            ViewCompat.animate(view).setUpdateListener(null).setListener(null);
+            view.setTranslationY(0);
+            if (imeAnimatedAppBar != null) imeAnimatedAppBar.setTranslationY(0);
+            imeAnimatedAppBar = null;
+            if (pendingInsets != null) {
+                // The one layout.
+                WindowInsetsCompat insets = pendingInsets;
+                pendingInsets = null;
+                ViewCompat.dispatchApplyWindowInsets(view, insets);
+                appliedInsetsCount++;
+            }
+        }
+    };
+
+    /**
+     * If enabled, when the keyboard opens or closes over an expanded sheet, the sheet moves with it,
+     * frame by frame, while the app bar, if any, stays in place. The new insets are dispatched
+     * to the sheet once, when the animation ends, so there is a single layout rather than
+     * a jump. Requires API 19. Disabled by default.
+     *
+     * @param enabled whether to animate keyboard insets
+     */
+    public void setImeInsetsAnimationEnabled(boolean enabled) {
+        animateImeInsets = enabled;
+        if (!enabled) endImeAnimation();
+    }
+
+    /**
+     * Returns whether keyboard insets are animated.
+     *
+     * @return true if enabled
+     * @see #setImeInsetsAnimationEnabled(boolean)
+     */
+    public boolean isImeInsetsAnimationEnabled() {
+        return animateImeInsets;
+    }
+
+    /**
+     * Forgets the last dispatched insets, so that the next ones will reach the sheet
+     * even if unchanged. This can be useful if views that handle insets are added
+     * to the sheet at runtime.
+     */
+    public void invalidateInsets() {
+        hasLastInsets = false;
+    }
+
+    /**
+     * Returns the number of times insets were dispatched to the sheet.
+     *
+     * @return the applied insets count
+     */
+    public int getAppliedInsetsCount() {
+        return appliedInsetsCount;
+    }
+
+    /**
+     * Returns the number of times insets were not dispatched to the sheet,
+     * because they were the same as the last ones.
+     *
+     * @return the skipped insets count
+     */
+    public int getSkippedInsetsCount() {
+        return skippedInsetsCount;
+    }
+
+    /**
+     * Records a state that was requested through {@link #setState(int)}, so that, if
+     * we are saved while settling towards it, we know where we were going.
+     *
+     * @param state the requested state
+     */
+    void setRequestedState(int state) {
+        requestedState = state;
+    }
+
+    /**
+     * Called when the sheet reaches a stable state: any request is now fulfilled.
+     */
+    void clearRequestedState() {
+        requestedState = -1;
+    }
+
+    /**
+     * Returns the stable state the sheet is moving to, if it is dragging or settling.
+     * This is the last requested state if any, or the state closest to the current
+     * sheet position.
+     *
+     * @param parent the parent
+     * @param child the sheet
+     * @return the target state
+     */
+    int resolveTargetState(CoordinatorLayout parent, V child) {
+        int state = getState();
+        if (state != STATE_SETTLING && state != STATE_DRAGGING) return state;
+        if (requestedState != -1) return requestedState;
+
+        int parentHeight = parent.getHeight();
+        int expandedTop = getExpandedTop(parent, child);
+        int collapsedTop = getCollapsedTop(parent, child, getPeekHeight());
+
+        int top = child.getTop();
+        int target = STATE_EXPANDED;
+        int distance = Math.abs(top - expandedTop);
+        if (!getSkipCollapsed() && Math.abs(top - collapsedTop) < distance) {
+            target = STATE_COLLAPSED;
+            distance = Math.abs(top - collapsedTop);
+        }
+        if (isHideable() && Math.abs(top - parentHeight) < distance) {
+            target = STATE_HIDDEN;
+        }
+        return target;
+    }
+
+    @Override
+    public boolean onLayoutChild(CoordinatorLayout parent, V child, int layoutDirection) {
+        boolean result = super.onLayoutChild(parent, child, layoutDirection);
+        if (getState() == STATE_COLLAPSED) {
+            // This is where BottomSheetBehavior put us, so the most reliable collapsed offset we can get.
+            laidOutCollapsedTop = child.getTop();
+            laidOutParentWidth = parent.getWidth();
+            laidOutParentHeight = parent.getHeight();
+            laidOutChildHeight = child.getHeight();
+            laidOutPeekHeight = getPeekHeight();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sheet top offset when expanded, as computed by BottomSheetBehavior.onLayoutChild.
+     *
+     * @param parent the parent
+     * @param child the sheet
+     * @return the expanded top
+     */
+    int getExpandedTop(View parent, View child) {
+        return Math.max(0, parent.getHeight() - child.getHeight());
+    }
+
+    /**
+     * Returns the sheet top offset when collapsed with the given peek height.
+     * If we were laid out collapsed with the same peek height and sizes, this is where
+     * we were laid out. Otherwise, it is computed as BottomSheetBehavior.onLayoutChild does.
+     *
+     * @param parent the parent
+     * @param child the sheet
+     * @param peekHeight the peek height, or {@link #PEEK_HEIGHT_AUTO}
+     * @return the collapsed top
+     */
+    int getCollapsedTop(View parent, View child, int peekHeight) {
+        int parentHeight = parent.getHeight();
+        if (laidOutCollapsedTop != -1
+                && laidOutParentWidth == parent.getWidth()
+                && laidOutParentHeight == parentHeight
+                && laidOutChildHeight == child.getHeight()
+                && laidOutPeekHeight == peekHeight) {
+            return laidOutCollapsedTop;
+        }
+        if (peekHeight == PEEK_HEIGHT_AUTO) {
+            int minPeekHeight = child.getResources().getDimensionPixelSize(R.dimen.design_bottom_sheet_peek_height_min);
+            peekHeight = Math.max(minPeekHeight, parentHeight - parent.getWidth() * 9 / 16);
+        }
+        return Math.max(parentHeight - peekHeight, getExpandedTop(parent, child));
+    }
+
     @Override
     public Parcelable onSaveInstanceState(CoordinatorLayout parent, V child) {
-        if (getState() == STATE_SETTLING) {
-            try {
-                Field f = BottomSheetBehavior.class.getDeclaredField("mState");
-                f.setAccessible(true);
-                f.setInt(BottomSheetInsetsBehavior.this, STATE_HIDDEN);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        int appBarOffset = 0;
+        if (child instanceof BottomSheetCoordinatorLayout) {
+            appBarOffset = ((BottomSheetCoordinatorLayout) child).getAppBarOffset();
         }
-        return new SavedState(super.onSaveInstanceState(parent, child), isHideable());
+        return new SavedState(super.onSaveInstanceState(parent, child), isHideable(),
+                resolveTargetState(parent, child), appBarOffset);
     }
 
     @Override
@@ -61,27 +345,47 @@ public class BottomSheetInsetsBehavior<V extends View> extends BottomSheetBehavi
         SavedState ss = (SavedState) state;
         super.onRestoreInstanceState(parent, child, ss.getSuperState());
         setHideable(ss.hideable);
+        // If we are not laid out yet, this just sets the state and onLayoutChild
+        // will place the sheet in its final position.
+        if (ss.state != SavedState.STATE_UNKNOWN && ss.state != getState()) setState(ss.state);
+        if (child instanceof BottomSheetCoordinatorLayout) {
+            ((BottomSheetCoordinatorLayout) child).onSheetRestored(ss.appBarOffset);
+        }
     }
 
-
     public static class SavedState extends AbsSavedState {
 
+        // The state restored by BottomSheetBehavior is kept.
+        final static int STATE_UNKNOWN = -1;
+
         boolean hideable;
+        int state;
+        int appBarOffset;
 
         public SavedState(Parcel source, ClassLoader classLoader) {
             super(source, classLoader);
             hideable = source.readInt() == 1;
+            state = source.readInt();
+            appBarOffset = source.readInt();
         }
 
         public SavedState(Parcelable superState, boolean hideable) {
+            this(superState, hideable, STATE_UNKNOWN, 0);
+        }
+
+        SavedState(Parcelable superState, boolean hideable, int state, int appBarOffset) {
             super(superState);
             this.hideable = hideable;
+            this.state = state;
+            this.appBarOffset = appBarOffset;
         }
 
         @Override
         public void writeToParcel(Parcel out, int flags) {
             super.writeToParcel(out, flags);
             out.writeInt(hideable ? 1 : 0);
+            out.writeInt(state);
+            out.writeInt(appBarOffset);
         }
 
         public static final Creator<SavedState> CREATOR = ParcelableCompat.newCreator(
@@ -0,0 +1,97 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.annotation.LayoutRes;
+import android.support.annotation.Nullable;
+import android.support.v4.view.ViewCompat;
+import android.view.LayoutInflater;
+import android.view.View;
+
+/**
+ * Holds sheet content that should not be created with the sheet.
+ *
+ * Content is created when the main thread is first idle after the sheet is attached,
+ * or, at the latest, when the sheet first leaves the collapsed or hidden state.
+ * In the latter case, content was not ready when needed, and we report it as late.
+ */
+class DeferredContent implements MessageQueue.IdleHandler {
+
+    private final BottomSheetCoordinatorLayout sheet;
+    private int layoutRes;
+    private BottomSheetCoordinatorLayout.ContentFactory factory;
+    private BottomSheetCoordinatorLayout.OnDeferredContentListener listener;
+    private boolean pending;
+    private boolean idleQueued;
+
+    DeferredContent(BottomSheetCoordinatorLayout sheet) {
+        this.sheet = sheet;
+    }
+
+    void set(@LayoutRes int layoutRes, @Nullable BottomSheetCoordinatorLayout.ContentFactory factory) {
+        this.layoutRes = layoutRes;
+        this.factory = factory;
+        pending = true;
+        if (sheet.getWindowToken() != null) onAttached();
+    }
+
+    void setListener(@Nullable BottomSheetCoordinatorLayout.OnDeferredContentListener listener) {
+        this.listener = listener;
+    }
+
+    boolean isPending() {
+        return pending;
+    }
+
+    void onAttached() {
+        if (pending && !idleQueued) {
+            idleQueued = true;
+            Looper.myQueue().addIdleHandler(this);
+        }
+    }
+
+    void onDetached() {
+        if (idleQueued) {
+            idleQueued = false;
+            Looper.myQueue().removeIdleHandler(this);
+        }
+    }
+
+    /**
+     * The sheet is (or is about to be) in the given state. If it is not collapsed
+     * or hidden, content is needed now.
+     *
+     * @param state the sheet state
+     */
+    void onSheetState(int state) {
+        if (pending
+                && state != BottomSheetCoordinatorBehavior.STATE_COLLAPSED
+                && state != BottomSheetCoordinatorBehavior.STATE_HIDDEN) {
+            create(true);
+        }
+    }
+
+    @Override
+    public boolean queueIdle() {
+        idleQueued = false;
+        if (pending) create(false);
+        return false;
+    }
+
+    private void create(boolean late) {
+        pending = false;
+        onDetached();
+        LayoutInflater inflater = LayoutInflater.from(sheet.getContext());
+        View content;
+        if (factory != null) {
+            content = factory.createContent(inflater, sheet);
+        } else {
+            content = inflater.inflate(layoutRes, sheet, false);
+        }
+        factory = null;
+        sheet.addView(content);
+        // Content was not there when insets were dispatched.
+        ViewCompat.requestApplyInsets(sheet);
+        if (listener != null) listener.onDeferredContentAdded(sheet, content, late);
+    }
+}
@@ -0,0 +1,117 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.support.v4.widget.NestedScrollView;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.widget.OverScroller;
+import android.widget.ScrollView;
+
+/**
+ * Passes fling momentum between the inner scrolling content and the sheet, so that
+ * a single fling can carry on where it would otherwise stop.
+ *
+ * - Content to sheet: the content is flinging towards its top, and reaches it.
+ *   We receive the unconsumed, non-touch scroll and, if the fling is still fast enough,
+ *   let the sheet settle down with the velocity that is left.
+ * - Sheet to content: the sheet consumed a fling to reach the expanded state.
+ *   When it gets there, we fling the content with the same velocity.
+ *
+ * The content velocity is read from an {@link OverScroller} that runs the same fling as the
+ * content (RecyclerView, NestedScrollView and ScrollView all fling with one), started from
+ * the velocity passed to onNestedPreFling.
+ *
+ * Both ways go through existing, frame-aligned paths: the sheet settle animation and
+ * the content own fling.
+ */
+class FlingHandoff {
+
+    private boolean handedOff;
+    private View pendingTarget;
+    private float pendingVelocity;
+    private OverScroller contentScroller;
+    private boolean contentFlinging;
+    private float minFlingVelocity;
+    private float maxFlingVelocity;
+
+    /**
+     * A new nested scroll is starting. Forget about anything that happened before.
+     */
+    void reset() {
+        handedOff = false;
+        pendingTarget = null;
+        pendingVelocity = 0;
+        contentFlinging = false;
+    }
+
+    /**
+     * Called when the inner content is about to fling.
+     *
+     * @param target the content
+     * @param velocityY the initial fling velocity, positive when scrolling down
+     */
+    void onContentFling(View target, float velocityY) {
+        if (contentScroller == null) {
+            contentScroller = new OverScroller(target.getContext());
+            ViewConfiguration configuration = ViewConfiguration.get(target.getContext());
+            minFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+            maxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+        }
+        // The content clamps the velocity after offering it to its parents.
+        int velocity = (int) Math.max(-maxFlingVelocity, Math.min(velocityY, maxFlingVelocity));
+        contentScroller.fling(0, 0, 0, velocity, 0, 0, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        contentFlinging = true;
+    }
+
+    /**
+     * Called for non-touch nested scrolls (flings) of the inner content.
+     * When the content hits its top with momentum left, the sheet takes over.
+     *
+     * @param sheet the sheet
+     * @param dyUnconsumed the scroll that the content could not consume
+     */
+    void onContentFlingScroll(BottomSheetCoordinatorLayout sheet, int dyUnconsumed) {
+        if (handedOff || !contentFlinging || dyUnconsumed >= 0) return;
+        if (sheet.getState() != BottomSheetCoordinatorBehavior.STATE_EXPANDED) return;
+        if (sheet.canScrollUp()) return; // App bar is still collapsing.
+        if (!contentScroller.computeScrollOffset()) return; // Fling is over.
+        // The content goes up, so the sheet goes down.
+        float velocity = contentScroller.getCurrVelocity();
+        if (velocity < minFlingVelocity) return;
+        handedOff = true;
+        contentFlinging = false;
+        BottomSheetCoordinatorBehavior.from(sheet).onContentFling(sheet, velocity);
+    }
+
+    /**
+     * Called when the sheet consumed a fling of the inner content, that would
+     * scroll the content down. We will pass it back when the sheet is expanded.
+     *
+     * @param target the content
+     * @param velocityY the fling velocity
+     */
+    void onSheetConsumedFling(View target, float velocityY) {
+        if (velocityY <= 0) return;
+        pendingTarget = target;
+        pendingVelocity = velocityY;
+    }
+
+    void onSheetStateChanged(int state) {
+        if (state == BottomSheetCoordinatorBehavior.STATE_DRAGGING
+                || state == BottomSheetCoordinatorBehavior.STATE_SETTLING) {
+            return;
+        }
+        View target = pendingTarget;
+        int velocity = (int) pendingVelocity;
+        pendingTarget = null;
+        pendingVelocity = 0;
+        if (state != BottomSheetCoordinatorBehavior.STATE_EXPANDED || target == null) return;
+        if (target instanceof RecyclerView) {
+            ((RecyclerView) target).fling(0, velocity);
+        } else if (target instanceof NestedScrollView) {
+            ((NestedScrollView) target).fling(velocity);
+        } else if (target instanceof ScrollView) {
+            ((ScrollView) target).fling(velocity);
+        }
+    }
+}
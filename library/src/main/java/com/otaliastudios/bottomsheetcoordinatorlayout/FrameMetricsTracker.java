@@ -0,0 +1,170 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.RequiresApi;
+import android.support.design.widget.BottomSheetBehavior;
+import android.support.v4.view.ViewCompat;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.util.Arrays;
+
+/**
+ * Collects frame timings through {@link Choreographer} while the sheet is moving,
+ * and fills a {@link GestureMetrics} when it stops.
+ *
+ * This is only created when someone is listening, so nothing here runs otherwise.
+ * All storage is preallocated: nothing is allocated per frame or per event.
+ */
+@RequiresApi(Build.VERSION_CODES.JELLY_BEAN)
+class FrameMetricsTracker implements Choreographer.FrameCallback {
+
+    // A frame is slow if it took longer than this many frame intervals, so that vsync jitter
+    // is not counted, but a single dropped frame is, whatever the refresh rate.
+    private final static float SLOW_FRAME_INTERVALS = 1.5f;
+    private final static float DEFAULT_REFRESH_RATE = 60;
+    final static long FROZEN_FRAME_MILLIS = 700;
+
+    // Frames past this count are still counted, but not used for percentiles.
+    private final static int MAX_FRAMES = 512;
+
+    interface Callback {
+        void onGestureMetrics(GestureMetrics metrics);
+    }
+
+    private final View view;
+    private final Callback callback;
+    private long slowFrameNanos;
+    private final GestureMetrics metrics = new GestureMetrics();
+    private final long[] frameNanos = new long[MAX_FRAMES];
+    private int frameCount;
+    private int slowFrameCount;
+    private int frozenFrameCount;
+    private long lastFrameTimeNanos;
+
+    private boolean active;
+    private long startMillis;
+    private long touchDownMillis = -1;
+    private long touchToFirstMoveMillis = -1;
+    private long interceptNanos;
+    private long touchNanos;
+
+    FrameMetricsTracker(View view, Callback callback) {
+        this.view = view;
+        this.callback = callback;
+    }
+
+    void onSheetStateChanged(int state) {
+        switch (state) {
+            case BottomSheetBehavior.STATE_DRAGGING:
+            case BottomSheetBehavior.STATE_SETTLING:
+                if (!active) start();
+                break;
+            default:
+                if (active) stop(state);
+                break;
+        }
+    }
+
+    void onSheetSlide() {
+        if (active && touchDownMillis >= 0 && touchToFirstMoveMillis < 0) {
+            touchToFirstMoveMillis = SystemClock.uptimeMillis() - touchDownMillis;
+        }
+    }
+
+    void onInterceptTouchEvent(MotionEvent event, long nanos) {
+        onEvent(event);
+        interceptNanos += nanos;
+    }
+
+    void onTouchEvent(MotionEvent event, long nanos) {
+        onEvent(event);
+        touchNanos += nanos;
+    }
+
+    private void onEvent(MotionEvent event) {
+        if (active) return;
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                // A new gesture might be starting. Forget about any previous touch.
+                touchDownMillis = event.getDownTime();
+                touchToFirstMoveMillis = -1;
+                interceptNanos = 0;
+                touchNanos = 0;
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                // The touch ended and the sheet never moved. This was not a sheet gesture.
+                touchDownMillis = -1;
+                break;
+        }
+    }
+
+    private void start() {
+        active = true;
+        startMillis = SystemClock.uptimeMillis();
+        frameCount = 0;
+        slowFrameCount = 0;
+        frozenFrameCount = 0;
+        lastFrameTimeNanos = 0;
+        // Read at each gesture: the display, or its refresh rate, might have changed.
+        Display display = ViewCompat.getDisplay(view);
+        float refreshRate = display != null ? display.getRefreshRate() : 0;
+        if (refreshRate < 1) refreshRate = DEFAULT_REFRESH_RATE;
+        slowFrameNanos = (long) (SLOW_FRAME_INTERVALS * 1000000000L / refreshRate);
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    private void stop(int state) {
+        active = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        int sampled = Math.min(frameCount, MAX_FRAMES);
+        Arrays.sort(frameNanos, 0, sampled);
+        metrics.frameCount = frameCount;
+        metrics.slowFrameCount = slowFrameCount;
+        metrics.frozenFrameCount = frozenFrameCount;
+        metrics.p50FrameMillis = percentile(sampled, 50);
+        metrics.p95FrameMillis = percentile(sampled, 95);
+        metrics.touchToFirstMoveMillis = touchDownMillis >= 0 ? touchToFirstMoveMillis : -1;
+        metrics.interceptNanos = interceptNanos;
+        metrics.touchNanos = touchNanos;
+        metrics.durationMillis = SystemClock.uptimeMillis() - startMillis;
+        metrics.finalState = state;
+        touchDownMillis = -1;
+        touchToFirstMoveMillis = -1;
+        interceptNanos = 0;
+        touchNanos = 0;
+        callback.onGestureMetrics(metrics);
+    }
+
+    void release() {
+        active = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    private float percentile(int sampled, int percent) {
+        if (sampled == 0) return 0;
+        int index = Math.min(sampled - 1, (sampled * percent) / 100);
+        return frameNanos[index] / 1000000f;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!active) return;
+        if (lastFrameTimeNanos != 0) {
+            long duration = frameTimeNanos - lastFrameTimeNanos;
+            if (frameCount < MAX_FRAMES) frameNanos[frameCount] = duration;
+            frameCount++;
+            if (duration > FROZEN_FRAME_MILLIS * 1000000) {
+                frozenFrameCount++;
+            } else if (duration > slowFrameNanos) {
+                slowFrameCount++;
+            }
+        }
+        lastFrameTimeNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
@@ -0,0 +1,122 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.view.MotionEvent;
+
+/**
+ * Tracks the vertical direction of the current gesture, for the active pointer only.
+ *
+ * Direction only flips when the finger has travelled more than the touch slop against
+ * the current direction, *and* the filtered velocity agrees. This way small jitters
+ * do not flip the direction back and forth, and events are not bounced between
+ * the sheet and the app bar.
+ *
+ * This holds primitives only and never allocates.
+ */
+class GestureDirectionTracker {
+
+    private final static int INVALID_POINTER = -1;
+
+    // Weight of each new velocity sample in the low-pass filter.
+    private final static float VELOCITY_SMOOTHING = 0.35f;
+
+    private final int touchSlop;
+    private int activePointerId = INVALID_POINTER;
+    private boolean fingerDown;
+    private float lastY;
+    private long lastTime;
+    private float extremeY;
+    private float velocity; // px per millisecond
+    private float releaseVelocity; // px per millisecond
+
+    GestureDirectionTracker(int touchSlop) {
+        this.touchSlop = touchSlop;
+    }
+
+    /**
+     * Feeds a new event. The same event can be passed more than once
+     * (e.g. through onInterceptTouchEvent, then onTouchEvent): it will be ignored.
+     *
+     * @param event the event
+     */
+    void onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                activePointerId = event.getPointerId(0);
+                releaseVelocity = 0;
+                reset(event.getY(0), event.getEventTime());
+                break;
+
+            case MotionEvent.ACTION_POINTER_UP:
+                int upIndex = event.getActionIndex();
+                if (event.getPointerId(upIndex) == activePointerId) {
+                    // Pick another pointer. Start from scratch with it, keeping the direction.
+                    int newIndex = upIndex == 0 ? 1 : 0;
+                    activePointerId = event.getPointerId(newIndex);
+                    lastY = event.getY(newIndex);
+                    extremeY = lastY;
+                    lastTime = event.getEventTime();
+                }
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                if (activePointerId == INVALID_POINTER) return;
+                int index = event.findPointerIndex(activePointerId);
+                if (index < 0) return;
+                float y = event.getY(index);
+                long time = event.getEventTime();
+                if (time == lastTime && y == lastY) return; // Already seen.
+
+                long dt = Math.max(1, time - lastTime);
+                velocity += VELOCITY_SMOOTHING * (((y - lastY) / dt) - velocity);
+                lastY = y;
+                lastTime = time;
+
+                if (fingerDown) {
+                    extremeY = Math.max(extremeY, y);
+                    if (extremeY - y > touchSlop && velocity < 0) {
+                        fingerDown = false;
+                        extremeY = y;
+                    }
+                } else {
+                    extremeY = Math.min(extremeY, y);
+                    if (y - extremeY > touchSlop && velocity > 0) {
+                        fingerDown = true;
+                        extremeY = y;
+                    }
+                }
+                break;
+
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                if (activePointerId == INVALID_POINTER) return; // Already seen.
+                boolean up = event.getActionMasked() == MotionEvent.ACTION_UP;
+                releaseVelocity = up ? velocity : 0;
+                activePointerId = INVALID_POINTER;
+                reset(0, 0);
+                break;
+        }
+    }
+
+    private void reset(float y, long time) {
+        fingerDown = false;
+        velocity = 0;
+        lastY = y;
+        extremeY = y;
+        lastTime = time;
+    }
+
+    /**
+     * @return whether the active pointer is moving down
+     */
+    boolean isFingerDown() {
+        return fingerDown;
+    }
+
+    /**
+     * @return the filtered vertical velocity when the last gesture ended,
+     *         in pixels per second, or 0 if it was cancelled
+     */
+    float getReleaseVelocity() {
+        return releaseVelocity * 1000;
+    }
+}
@@ -0,0 +1,101 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+/**
+ * Frame timing figures for a single sheet gesture, that is, everything that happened
+ * from the moment the sheet left a stable state (through {@code STATE_DRAGGING} or
+ * {@code STATE_SETTLING}) to the moment it reached a stable state again.
+ *
+ * Instances are reused by {@link BottomSheetCoordinatorLayout}: listeners should copy
+ * the values they are interested in, and never hold a reference to this object.
+ *
+ * @see BottomSheetCoordinatorLayout#addOnGestureMetricsListener(BottomSheetCoordinatorLayout.OnGestureMetricsListener)
+ */
+public final class GestureMetrics {
+
+    int frameCount;
+    int slowFrameCount;
+    int frozenFrameCount;
+    float p50FrameMillis;
+    float p95FrameMillis;
+    long touchToFirstMoveMillis;
+    long interceptNanos;
+    long touchNanos;
+    long durationMillis;
+    int finalState;
+
+    GestureMetrics() {}
+
+    /**
+     * @return the number of frames drawn while the sheet was moving.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return the number of frames that took longer than 1.5 times the display
+     *         frame interval, e.g. 25ms at 60Hz or 12.5ms at 120Hz.
+     */
+    public int getSlowFrameCount() {
+        return slowFrameCount;
+    }
+
+    /**
+     * @return the number of frames that took longer than
+     *         {@link FrameMetricsTracker#FROZEN_FRAME_MILLIS} milliseconds.
+     */
+    public int getFrozenFrameCount() {
+        return frozenFrameCount;
+    }
+
+    /**
+     * @return the median frame duration, in milliseconds.
+     */
+    public float getP50FrameMillis() {
+        return p50FrameMillis;
+    }
+
+    /**
+     * @return the 95th percentile frame duration, in milliseconds.
+     */
+    public float getP95FrameMillis() {
+        return p95FrameMillis;
+    }
+
+    /**
+     * @return milliseconds from the ACTION_DOWN that started this gesture to the first
+     *         sheet movement, or -1 if the gesture was not started by a touch
+     *         (for example, a {@code setState()} call).
+     */
+    public long getTouchToFirstMoveMillis() {
+        return touchToFirstMoveMillis;
+    }
+
+    /**
+     * @return the total time spent in the behavior onInterceptTouchEvent, in nanoseconds.
+     */
+    public long getInterceptNanos() {
+        return interceptNanos;
+    }
+
+    /**
+     * @return the total time spent in the behavior onTouchEvent, in nanoseconds.
+     */
+    public long getTouchNanos() {
+        return touchNanos;
+    }
+
+    /**
+     * @return the gesture duration, in milliseconds.
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return the stable state that ended this gesture.
+     */
+    public int getFinalState() {
+        return finalState;
+    }
+}
@@ -0,0 +1,212 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.design.widget.CoordinatorLayout;
+import android.view.MotionEvent;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Records what goes through a {@link BottomSheetCoordinatorBehavior}: touch events,
+ * sheet state changes and app bar offset changes.
+ *
+ * Records are stored in a fixed-size ring buffer made of primitive arrays, so recording
+ * never allocates. When the buffer is full, the oldest records are overwritten.
+ * The trace can be exported with {@link #writeTo(OutputStream)} and fed back to the
+ * behavior with {@link #replay(InputStream, CoordinatorLayout, BottomSheetCoordinatorLayout)}.
+ *
+ * Replays are single-pointer. Only the first pointer position of each event is recorded,
+ * along with the pointer count: traces that contain multi-pointer events are rejected
+ * on replay, rather than replayed as a different gesture.
+ *
+ * @see BottomSheetCoordinatorBehavior#setGestureTraceRecorder(GestureTraceRecorder)
+ */
+public final class GestureTraceRecorder {
+
+    private final static int MAGIC = 0x42534354; // BSCT
+    private final static int VERSION = 2;
+
+    // Touch records hold the action in the low 16 bits, and the pointer count above.
+    private final static int ACTION_BITS = 0xffff;
+    private final static int POINTER_COUNT_SHIFT = 16;
+
+    final static byte TYPE_INTERCEPT = 0;
+    final static byte TYPE_TOUCH = 1;
+    final static byte TYPE_STATE = 2;
+    final static byte TYPE_APP_BAR_OFFSET = 3;
+
+    private final int capacity;
+    private final byte[] types;
+    private final long[] times;
+    private final int[] values;
+    private final float[] xs;
+    private final float[] ys;
+    private int head; // next write position
+    private int size;
+
+    /**
+     * Creates a recorder that holds the last {@code capacity} records.
+     *
+     * @param capacity the maximum number of records
+     */
+    public GestureTraceRecorder(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be > 0.");
+        this.capacity = capacity;
+        types = new byte[capacity];
+        times = new long[capacity];
+        values = new int[capacity];
+        xs = new float[capacity];
+        ys = new float[capacity];
+    }
+
+    /**
+     * @return the number of records currently held
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Drops all records.
+     */
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    void recordEvent(byte type, MotionEvent event) {
+        int value = (event.getAction() & ACTION_BITS) | (event.getPointerCount() << POINTER_COUNT_SHIFT);
+        record(type, event.getEventTime(), value, event.getX(), event.getY());
+    }
+
+    void recordState(int state) {
+        record(TYPE_STATE, SystemClock.uptimeMillis(), state, 0, 0);
+    }
+
+    void recordAppBarOffset(int offset) {
+        record(TYPE_APP_BAR_OFFSET, SystemClock.uptimeMillis(), offset, 0, 0);
+    }
+
+    private void record(byte type, long time, int value, float x, float y) {
+        types[head] = type;
+        times[head] = time;
+        values[head] = value;
+        xs[head] = x;
+        ys[head] = y;
+        head = (head + 1) % capacity;
+        if (size < capacity) size++;
+    }
+
+    /**
+     * Writes the trace, oldest record first, in a compact binary format:
+     * a header (magic, version, count, base time), then 17 bytes per record
+     * (type, time delta, value, x, y). For touch records, the value holds the action
+     * in the low 16 bits and the pointer count in the next 8.
+     *
+     * @param out the destination stream. It is not closed
+     * @throws IOException if writing fails
+     */
+    public void writeTo(@NonNull OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        int start = (head - size + capacity) % capacity;
+        long lastTime = size > 0 ? times[start] : 0;
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(size);
+        data.writeLong(lastTime);
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % capacity;
+            data.writeByte(types[index]);
+            data.writeInt((int) (times[index] - lastTime));
+            data.writeInt(values[index]);
+            data.writeFloat(xs[index]);
+            data.writeFloat(ys[index]);
+            lastTime = times[index];
+        }
+        data.flush();
+    }
+
+    /**
+     * Feeds a trace written by {@link #writeTo(OutputStream)} to the behavior of the given sheet.
+     * Touch events go to onInterceptTouchEvent or onTouchEvent, as they did when recorded,
+     * and app bar offsets are applied to the sheet. Recorded states are not applied,
+     * since they are a result of the replay itself.
+     *
+     * This runs synchronously and does not depend on the clock, so the same trace always
+     * goes through the same code paths. Any recorder attached to the behavior is detached
+     * during the replay.
+     *
+     * Only single-pointer traces can be replayed. The whole trace is read and checked
+     * before anything is dispatched, so a multi-pointer trace leaves the sheet untouched.
+     *
+     * @param in the trace stream. It is not closed
+     * @param parent the sheet parent
+     * @param sheet the sheet, which must have a {@link BottomSheetCoordinatorBehavior}
+     * @throws IOException if reading fails, the stream is not a trace, or it has multi-pointer events
+     */
+    public static void replay(@NonNull InputStream in,
+                              @NonNull CoordinatorLayout parent,
+                              @NonNull BottomSheetCoordinatorLayout sheet) throws IOException {
+        BottomSheetCoordinatorBehavior behavior = BottomSheetCoordinatorBehavior.from(sheet);
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) throw new IOException("Not a gesture trace.");
+        int version = data.readByte();
+        if (version != VERSION) throw new IOException("Unsupported trace version: " + version);
+        int count = data.readInt();
+        if (count < 0) throw new IOException("Invalid record count: " + count);
+        long time = data.readLong();
+        byte[] types = new byte[count];
+        long[] times = new long[count];
+        int[] values = new int[count];
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = data.readByte();
+            time += data.readInt();
+            times[i] = time;
+            values[i] = data.readInt();
+            xs[i] = data.readFloat();
+            ys[i] = data.readFloat();
+            boolean touch = types[i] == TYPE_INTERCEPT || types[i] == TYPE_TOUCH;
+            if (touch && (values[i] >>> POINTER_COUNT_SHIFT) != 1) {
+                throw new IOException("Multi-pointer traces can not be replayed.");
+            }
+        }
+
+        // Don't record the replay itself: it might be the very trace that we are reading.
+        GestureTraceRecorder recorder = behavior.getGestureTraceRecorder();
+        behavior.setGestureTraceRecorder(null);
+        try {
+            long downTime = count > 0 ? times[0] : 0;
+            for (int i = 0; i < count; i++) {
+                switch (types[i]) {
+                    case TYPE_INTERCEPT:
+                    case TYPE_TOUCH:
+                        int action = values[i] & ACTION_BITS;
+                        if (action == MotionEvent.ACTION_DOWN) downTime = times[i];
+                        MotionEvent event = MotionEvent.obtain(downTime, times[i], action, xs[i], ys[i], 0);
+                        if (types[i] == TYPE_INTERCEPT) {
+                            behavior.onInterceptTouchEvent(parent, sheet, event);
+                        } else {
+                            behavior.onTouchEvent(parent, sheet, event);
+                        }
+                        event.recycle();
+                        break;
+                    case TYPE_APP_BAR_OFFSET:
+                        sheet.onReplayAppBarOffset(values[i]);
+                        break;
+                    case TYPE_STATE:
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            behavior.setGestureTraceRecorder(recorder);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+
+/**
+ * Moves a view onto a hardware layer while the sheet is dragging or settling,
+ * and restores its original layer type when it settles.
+ *
+ * While moving, the layer is just composited again at a different offset, so the view
+ * subtree is not redrawn. This is only true if the content does not invalidate: when it
+ * does, the layer is redrawn as well, which is more expensive than no layer at all.
+ * So we count, frame by frame, whether the view was drawn: if that happens in most
+ * frames, the layer is dropped until the next gesture.
+ */
+class HardwareLayerPromoter implements Runnable {
+
+    // Frames to look at before judging the content.
+    private final static int MIN_FRAMES = 6;
+
+    private final View view;
+    private boolean enabled;
+    private boolean promoted;
+    private boolean givenUp;
+    private int originalLayerType;
+    private boolean drawnInFrame;
+    private int gestureFrames;
+    private int gestureRedraws;
+    private int layerFrames;
+
+    HardwareLayerPromoter(View view) {
+        this.view = view;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) demote();
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the total number of frames that were rendered from the layer,
+     *         without redrawing the view
+     */
+    int getLayerFrameCount() {
+        return layerFrames;
+    }
+
+    void onSheetStateChanged(int state) {
+        if (state == BottomSheetCoordinatorBehavior.STATE_DRAGGING
+                || state == BottomSheetCoordinatorBehavior.STATE_SETTLING) {
+            if (enabled && !promoted && !givenUp) promote();
+        } else {
+            demote();
+            givenUp = false;
+        }
+    }
+
+    /**
+     * Called when the view draws its content, which means that the layer was redrawn.
+     */
+    void onDraw() {
+        drawnInFrame = true;
+    }
+
+    void release() {
+        demote();
+        givenUp = false;
+    }
+
+    private void promote() {
+        originalLayerType = view.getLayerType();
+        if (originalLayerType != View.LAYER_TYPE_NONE) return; // Not ours to change.
+        promoted = true;
+        gestureFrames = 0;
+        gestureRedraws = 0;
+        view.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        // The first draw fills the layer: skip it.
+        drawnInFrame = false;
+        ViewCompat.postOnAnimation(view, this);
+    }
+
+    private void demote() {
+        if (!promoted) return;
+        promoted = false;
+        view.removeCallbacks(this);
+        view.setLayerType(originalLayerType, null);
+    }
+
+    @Override
+    public void run() {
+        if (!promoted) return;
+        if (gestureFrames > 0) {
+            if (drawnInFrame) {
+                gestureRedraws++;
+            } else {
+                layerFrames++;
+            }
+        }
+        gestureFrames++;
+        drawnInFrame = false;
+        if (gestureFrames > MIN_FRAMES && gestureRedraws * 2 > gestureFrames) {
+            // Content invalidates constantly. The layer is costing us more than it saves.
+            demote();
+            givenUp = true;
+            return;
+        }
+        ViewCompat.postOnAnimation(view, this);
+    }
+}
@@ -0,0 +1,65 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+/**
+ * Counts of measure, layout and draw passes of a {@link BottomSheetCoordinatorLayout}
+ * during a single state transition, e.g. from collapsed to expanded, or during a restore.
+ *
+ * A transition starts with a {@code setState()} call, with the sheet leaving a stable state,
+ * or with a state restoration. It ends when the sheet reaches a stable state, or,
+ * for restorations, when it is first drawn.
+ *
+ * @see BottomSheetCoordinatorLayout#getLastTransitionStats()
+ */
+public final class LayoutPassStats {
+
+    int fromState = -1;
+    int toState = -1;
+    int measurePasses;
+    int layoutPasses;
+    int drawPasses;
+    boolean restore;
+
+    LayoutPassStats() {}
+
+    /**
+     * @return the state when the transition started, or -1 if unknown
+     */
+    public int getFromState() {
+        return fromState;
+    }
+
+    /**
+     * @return the state when the transition ended, or -1 if no transition ended yet
+     */
+    public int getToState() {
+        return toState;
+    }
+
+    /**
+     * @return the number of onMeasure calls during the transition
+     */
+    public int getMeasurePasses() {
+        return measurePasses;
+    }
+
+    /**
+     * @return the number of onLayout calls during the transition
+     */
+    public int getLayoutPasses() {
+        return layoutPasses;
+    }
+
+    /**
+     * @return the number of dispatchDraw calls during the transition
+     */
+    public int getDrawPasses() {
+        return drawPasses;
+    }
+
+    /**
+     * @return whether this transition was a state restoration
+     */
+    public boolean isRestore() {
+        return restore;
+    }
+}
@@ -0,0 +1,89 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link BottomSheetCoordinatorLayout.OnSheetMotionListener} that keeps a {@link RecyclerView}
+ * quiet while the sheet moves, so that it does not compete with the sheet for the main thread.
+ *
+ * - While the sheet is dragging or settling, item prefetch is disabled.
+ * - Adapter updates passed to {@link #runWhenIdle(Runnable)} are deferred until the sheet is idle,
+ *   so new items are not bound while it moves.
+ *
+ * The list itself is never frozen: it keeps receiving touches and scrolling, so a fling
+ * handed from the list to the sheet, or back, is not interrupted.
+ *
+ * <pre>{@code
+ * sheet.addOnSheetMotionListener(pauser = new RecyclerViewPauser(recyclerView));
+ * pauser.runWhenIdle(new Runnable() {
+ *     public void run() { adapter.submit(items); }
+ * });
+ * }</pre>
+ */
+public class RecyclerViewPauser implements BottomSheetCoordinatorLayout.OnSheetMotionListener {
+
+    private final RecyclerView recyclerView;
+    private final List<Runnable> deferred = new ArrayList<>();
+    private RecyclerView.LayoutManager pausedLayoutManager;
+    private boolean prefetchWasEnabled;
+    private boolean paused;
+
+    public RecyclerViewPauser(@NonNull RecyclerView recyclerView) {
+        this.recyclerView = recyclerView;
+    }
+
+    @Override
+    public void onSheetMotionChanged(@NonNull BottomSheetCoordinatorLayout sheet, int motion, float velocity) {
+        if (motion == BottomSheetCoordinatorLayout.MOTION_IDLE) {
+            resume();
+            return;
+        }
+        paused = true;
+        RecyclerView.LayoutManager manager = recyclerView.getLayoutManager();
+        if (pausedLayoutManager == null && manager != null) {
+            pausedLayoutManager = manager;
+            prefetchWasEnabled = manager.isItemPrefetchEnabled();
+            manager.setItemPrefetchEnabled(false);
+        }
+    }
+
+    /**
+     * Runs the given action now if the sheet is idle, or as soon as it stops moving.
+     * Use this for adapter updates, so that new items are bound once the sheet is still.
+     * Deferred actions run in order.
+     *
+     * @param action the action, typically an adapter update
+     */
+    public void runWhenIdle(@NonNull Runnable action) {
+        if (paused) {
+            deferred.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Returns whether the sheet is moving, and work is paused.
+     *
+     * @return true if paused
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    private void resume() {
+        paused = false;
+        if (pausedLayoutManager != null) {
+            pausedLayoutManager.setItemPrefetchEnabled(prefetchWasEnabled);
+            pausedLayoutManager = null;
+        }
+        // An action might move the sheet again: keep the rest for later.
+        while (!paused && !deferred.isEmpty()) {
+            deferred.remove(0).run();
+        }
+    }
+}
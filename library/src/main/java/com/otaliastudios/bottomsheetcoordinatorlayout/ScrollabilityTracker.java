@@ -0,0 +1,120 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.widget.NestedScrollView;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.ScrollView;
+
+/**
+ * Keeps track of whether the primary scrolling child of a sheet is scrolled to its top.
+ * This is used when there is no app bar, whose offset would otherwise tell us the same.
+ *
+ * The scrolling child is searched once, and its state is updated through scroll listeners,
+ * so that the touch path can just read {@link #isAtTop()}.
+ */
+class ScrollabilityTracker implements ViewTreeObserver.OnScrollChangedListener {
+
+    private final ViewGroup root;
+    private View scrollingChild;
+    private boolean searched;
+    private boolean atTop = true;
+    private ViewTreeObserver observer;
+
+    private final RecyclerView.OnScrollListener recyclerListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            update();
+        }
+    };
+
+    ScrollabilityTracker(ViewGroup root) {
+        this.root = root;
+    }
+
+    /**
+     * @return true if the scrolling child can not scroll up anymore, or if there is none
+     */
+    boolean isAtTop() {
+        return atTop;
+    }
+
+    /**
+     * Finds the scrolling child, if we haven't done it yet, and refreshes its state.
+     * Called after layout, since content changes can change scrollability too.
+     */
+    void refresh() {
+        if (!searched) {
+            setScrollingChild(findScrollingChild(root));
+            // If there's nothing yet, content might be added later, deep in the hierarchy.
+            searched = scrollingChild != null;
+        }
+        update();
+    }
+
+    /**
+     * The hierarchy changed: we will search for the scrolling child again at the next refresh.
+     */
+    void invalidate() {
+        searched = false;
+    }
+
+    /**
+     * Stops listening. Called when the root is detached.
+     */
+    void release() {
+        setScrollingChild(null);
+        searched = false;
+    }
+
+    @Override
+    public void onScrollChanged() {
+        update();
+    }
+
+    private void update() {
+        atTop = scrollingChild == null || !scrollingChild.canScrollVertically(-1);
+    }
+
+    private void setScrollingChild(@Nullable View child) {
+        if (child == scrollingChild) return;
+        if (scrollingChild instanceof RecyclerView) {
+            ((RecyclerView) scrollingChild).removeOnScrollListener(recyclerListener);
+        }
+        if (observer != null) {
+            if (observer.isAlive()) observer.removeOnScrollChangedListener(this);
+            observer = null;
+        }
+        scrollingChild = child;
+        if (child instanceof RecyclerView) {
+            ((RecyclerView) child).addOnScrollListener(recyclerListener);
+        } else if (child != null) {
+            // NestedScrollView and ScrollView have a single listener slot that we should not steal.
+            observer = root.getViewTreeObserver();
+            observer.addOnScrollChangedListener(this);
+        }
+    }
+
+    @Nullable
+    private static View findScrollingChild(ViewGroup group) {
+        for (int i = 0; i < group.getChildCount(); i++) {
+            View v = group.getChildAt(i);
+            if (v.getVisibility() == View.GONE) continue;
+            if (v instanceof RecyclerView || v instanceof NestedScrollView || v instanceof ScrollView) {
+                return v;
+            }
+        }
+        for (int i = 0; i < group.getChildCount(); i++) {
+            View v = group.getChildAt(i);
+            if (v.getVisibility() == View.GONE) continue;
+            if (v instanceof ViewGroup) {
+                View found = findScrollingChild((ViewGroup) v);
+                if (found != null) return found;
+            }
+        }
+        return null;
+    }
+}
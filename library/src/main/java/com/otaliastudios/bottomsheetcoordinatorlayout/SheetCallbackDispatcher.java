@@ -0,0 +1,111 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.support.annotation.NonNull;
+import android.support.design.widget.BottomSheetBehavior;
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Dispatches sheet events to any number of {@link BottomSheetBehavior.BottomSheetCallback}s.
+ *
+ * onSlide is coalesced: at most one call per frame, with the latest offset. It is delivered
+ * before the frame is drawn, from a one-shot pre-draw listener, so callbacks that move
+ * other views do so in the same frame as the sheet.
+ * onStateChanged is delivered synchronously, exactly once, after any pending onSlide,
+ * so callbacks always see events in order.
+ *
+ * Listeners are held in an array that is copied on add and remove, so dispatching
+ * does not allocate, and listeners can safely remove themselves while being called.
+ */
+class SheetCallbackDispatcher implements ViewTreeObserver.OnPreDrawListener {
+
+    private final static BottomSheetBehavior.BottomSheetCallback[] EMPTY = new BottomSheetBehavior.BottomSheetCallback[0];
+
+    private final View sheet;
+    private BottomSheetBehavior.BottomSheetCallback[] callbacks = EMPTY;
+    private boolean slidePending;
+    private float slideOffset;
+    private ViewTreeObserver observer;
+
+    SheetCallbackDispatcher(View sheet) {
+        this.sheet = sheet;
+    }
+
+    void add(@NonNull BottomSheetBehavior.BottomSheetCallback callback) {
+        for (BottomSheetBehavior.BottomSheetCallback c : callbacks) {
+            if (c == callback) return;
+        }
+        BottomSheetBehavior.BottomSheetCallback[] newCallbacks = new BottomSheetBehavior.BottomSheetCallback[callbacks.length + 1];
+        System.arraycopy(callbacks, 0, newCallbacks, 0, callbacks.length);
+        newCallbacks[callbacks.length] = callback;
+        callbacks = newCallbacks;
+    }
+
+    void remove(@NonNull BottomSheetBehavior.BottomSheetCallback callback) {
+        for (int i = 0; i < callbacks.length; i++) {
+            if (callbacks[i] == callback) {
+                BottomSheetBehavior.BottomSheetCallback[] newCallbacks = new BottomSheetBehavior.BottomSheetCallback[callbacks.length - 1];
+                System.arraycopy(callbacks, 0, newCallbacks, 0, i);
+                System.arraycopy(callbacks, i + 1, newCallbacks, i, callbacks.length - i - 1);
+                callbacks = newCallbacks.length == 0 ? EMPTY : newCallbacks;
+                return;
+            }
+        }
+    }
+
+    void onSlide(float offset) {
+        if (callbacks.length == 0) return;
+        slideOffset = offset;
+        if (!slidePending) {
+            slidePending = true;
+            if (ViewCompat.isAttachedToWindow(sheet)) {
+                observer = sheet.getViewTreeObserver();
+                observer.addOnPreDrawListener(this);
+            } else {
+                dispatchSlide(); // No frame is coming.
+            }
+        }
+    }
+
+    void onStateChanged(int state) {
+        flushSlide();
+        BottomSheetBehavior.BottomSheetCallback[] current = callbacks;
+        for (BottomSheetBehavior.BottomSheetCallback callback : current) {
+            callback.onStateChanged(sheet, state);
+        }
+    }
+
+    /**
+     * Delivers the pending onSlide, if any, right now.
+     */
+    void flushSlide() {
+        if (slidePending) {
+            removeListener();
+            dispatchSlide();
+        }
+    }
+
+    @Override
+    public boolean onPreDraw() {
+        removeListener();
+        dispatchSlide();
+        return true;
+    }
+
+    private void removeListener() {
+        if (observer == null) return;
+        ViewTreeObserver current = observer.isAlive() ? observer : sheet.getViewTreeObserver();
+        current.removeOnPreDrawListener(this);
+        observer = null;
+    }
+
+    private void dispatchSlide() {
+        if (!slidePending) return;
+        slidePending = false;
+        BottomSheetBehavior.BottomSheetCallback[] current = callbacks;
+        for (BottomSheetBehavior.BottomSheetCallback callback : current) {
+            callback.onSlide(sheet, slideOffset);
+        }
+    }
+}
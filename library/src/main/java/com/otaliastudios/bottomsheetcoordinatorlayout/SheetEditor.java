@@ -0,0 +1,125 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.support.annotation.Nullable;
+import android.support.design.widget.BottomSheetBehavior;
+
+/**
+ * Collects changes to the sheet behavior, to apply them all at once with {@link #apply()}.
+ * Get one through {@link BottomSheetCoordinatorLayout#edit()}.
+ *
+ * Changes are applied in the right order (callback, skipCollapsed, hideable, then peek height
+ * and state), so that the sheet settles at most once and requests at most one layout.
+ * If the behavior is not available yet, changes are kept and applied as soon as it is.
+ * Each call to {@link BottomSheetCoordinatorLayout#edit()} returns a new editor: changes
+ * that are never applied are simply dropped.
+ *
+ * <pre>{@code
+ * sheet.edit()
+ *     .setHideable(true)
+ *     .setPeekHeight(200)
+ *     .setState(BottomSheetBehavior.STATE_COLLAPSED)
+ *     .apply();
+ * }</pre>
+ */
+public final class SheetEditor {
+
+    final static int FLAG_STATE = 1;
+    final static int FLAG_HIDEABLE = 1 << 1;
+    final static int FLAG_SKIP_COLLAPSED = 1 << 2;
+    final static int FLAG_PEEK_HEIGHT = 1 << 3;
+    final static int FLAG_CALLBACK = 1 << 4;
+
+    private final BottomSheetCoordinatorLayout sheet;
+    int flags;
+    int state;
+    boolean hideable;
+    boolean skipCollapsed;
+    int peekHeight;
+    BottomSheetBehavior.BottomSheetCallback callback;
+
+    SheetEditor(BottomSheetCoordinatorLayout sheet) {
+        this.sheet = sheet;
+    }
+
+    /**
+     * @param state the new state
+     * @return this editor
+     */
+    public SheetEditor setState(int state) {
+        this.state = state;
+        flags |= FLAG_STATE;
+        return this;
+    }
+
+    /**
+     * @param hideable whether the sheet can be hidden
+     * @return this editor
+     */
+    public SheetEditor setHideable(boolean hideable) {
+        this.hideable = hideable;
+        flags |= FLAG_HIDEABLE;
+        return this;
+    }
+
+    /**
+     * @param skipCollapsed whether to skip the collapsed state
+     * @return this editor
+     */
+    public SheetEditor setSkipCollapsed(boolean skipCollapsed) {
+        this.skipCollapsed = skipCollapsed;
+        flags |= FLAG_SKIP_COLLAPSED;
+        return this;
+    }
+
+    /**
+     * @param peekHeight the peek height in pixels, or {@link BottomSheetBehavior#PEEK_HEIGHT_AUTO}
+     * @return this editor
+     */
+    public SheetEditor setPeekHeight(int peekHeight) {
+        this.peekHeight = peekHeight;
+        flags |= FLAG_PEEK_HEIGHT;
+        return this;
+    }
+
+    /**
+     * @param callback the callback, or null
+     * @return this editor
+     */
+    public SheetEditor setBottomSheetCallback(@Nullable BottomSheetBehavior.BottomSheetCallback callback) {
+        this.callback = callback;
+        flags |= FLAG_CALLBACK;
+        return this;
+    }
+
+    /**
+     * Applies all changes to the behavior in a single pass, or, if the behavior
+     * is not available yet, as soon as it is.
+     */
+    public void apply() {
+        sheet.applyEdits(this);
+    }
+
+    boolean has(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    boolean isEmpty() {
+        return flags == 0;
+    }
+
+    /**
+     * Copies the changes of another editor over ours.
+     */
+    void merge(SheetEditor other) {
+        if (other.has(FLAG_STATE)) setState(other.state);
+        if (other.has(FLAG_HIDEABLE)) setHideable(other.hideable);
+        if (other.has(FLAG_SKIP_COLLAPSED)) setSkipCollapsed(other.skipCollapsed);
+        if (other.has(FLAG_PEEK_HEIGHT)) setPeekHeight(other.peekHeight);
+        if (other.has(FLAG_CALLBACK)) setBottomSheetCallback(other.callback);
+    }
+
+    void clear() {
+        flags = 0;
+        callback = null;
+    }
+}
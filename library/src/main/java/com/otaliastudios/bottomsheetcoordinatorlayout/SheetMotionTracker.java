@@ -0,0 +1,104 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+/**
+ * Turns sheet states and offsets into a simple motion state (idle, dragging, settling)
+ * with a velocity, and notifies {@link BottomSheetCoordinatorLayout.OnSheetMotionListener}s
+ * when the motion state changes.
+ *
+ * Velocity is estimated from the sheet top offset at each slide, and smoothed.
+ * Listeners are held in an array that is copied on add and remove, like {@link SheetCallbackDispatcher}.
+ */
+class SheetMotionTracker {
+
+    private final static BottomSheetCoordinatorLayout.OnSheetMotionListener[] EMPTY = new BottomSheetCoordinatorLayout.OnSheetMotionListener[0];
+
+    // Weight of each new velocity sample in the low-pass filter.
+    private final static float VELOCITY_SMOOTHING = 0.5f;
+
+    private final BottomSheetCoordinatorLayout sheet;
+    private BottomSheetCoordinatorLayout.OnSheetMotionListener[] listeners = EMPTY;
+    private int motion = BottomSheetCoordinatorLayout.MOTION_IDLE;
+    private float velocity; // px per second
+    private int lastTop;
+    private long lastTime = -1;
+
+    SheetMotionTracker(BottomSheetCoordinatorLayout sheet) {
+        this.sheet = sheet;
+    }
+
+    void add(@NonNull BottomSheetCoordinatorLayout.OnSheetMotionListener listener) {
+        for (BottomSheetCoordinatorLayout.OnSheetMotionListener l : listeners) {
+            if (l == listener) return;
+        }
+        BottomSheetCoordinatorLayout.OnSheetMotionListener[] newListeners = new BottomSheetCoordinatorLayout.OnSheetMotionListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+        newListeners[listeners.length] = listener;
+        listeners = newListeners;
+    }
+
+    void remove(@NonNull BottomSheetCoordinatorLayout.OnSheetMotionListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                BottomSheetCoordinatorLayout.OnSheetMotionListener[] newListeners = new BottomSheetCoordinatorLayout.OnSheetMotionListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+                listeners = newListeners.length == 0 ? EMPTY : newListeners;
+                return;
+            }
+        }
+    }
+
+    int getMotion() {
+        return motion;
+    }
+
+    float getVelocity() {
+        return velocity;
+    }
+
+    void onSheetStateChanged(int state) {
+        int newMotion;
+        if (state == BottomSheetCoordinatorBehavior.STATE_DRAGGING) {
+            newMotion = BottomSheetCoordinatorLayout.MOTION_DRAGGING;
+        } else if (state == BottomSheetCoordinatorBehavior.STATE_SETTLING) {
+            newMotion = BottomSheetCoordinatorLayout.MOTION_SETTLING;
+        } else {
+            newMotion = BottomSheetCoordinatorLayout.MOTION_IDLE;
+        }
+        setMotion(newMotion);
+    }
+
+    void onSheetSlide() {
+        int top = sheet.getTop();
+        long time = SystemClock.uptimeMillis();
+        if (lastTime >= 0 && time > lastTime) {
+            float sample = (top - lastTop) * 1000f / (time - lastTime);
+            velocity += VELOCITY_SMOOTHING * (sample - velocity);
+        }
+        lastTop = top;
+        lastTime = time;
+    }
+
+    /**
+     * We are going away. Let listeners resume whatever they paused.
+     */
+    void release() {
+        setMotion(BottomSheetCoordinatorLayout.MOTION_IDLE);
+    }
+
+    private void setMotion(int newMotion) {
+        if (newMotion == BottomSheetCoordinatorLayout.MOTION_IDLE) {
+            velocity = 0;
+            lastTime = -1;
+        }
+        if (newMotion == motion) return;
+        motion = newMotion;
+        BottomSheetCoordinatorLayout.OnSheetMotionListener[] current = listeners;
+        for (BottomSheetCoordinatorLayout.OnSheetMotionListener listener : current) {
+            listener.onSheetMotionChanged(sheet, motion, velocity);
+        }
+    }
+}
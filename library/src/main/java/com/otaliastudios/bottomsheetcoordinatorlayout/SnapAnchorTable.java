@@ -0,0 +1,126 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import java.util.Arrays;
+
+/**
+ * A sorted table of sheet top offsets where the sheet can rest: the expanded offset,
+ * the collapsed offset, and any number of custom anchors in between.
+ *
+ * Anchors are given as visible sheet heights, either in pixels or as a fraction
+ * of the parent height. They are turned into offsets when {@link #build(int, int, int, boolean)}
+ * is called at layout time, so that {@link #resolve(int, float, float, boolean)}
+ * only needs a binary search, without allocating.
+ */
+class SnapAnchorTable {
+
+    private int[] heights = new int[0];
+    private float[] fractions = new float[0];
+
+    // Sorted, unique top offsets. The slot after the last one holds the hidden offset.
+    private int[] tops = new int[0];
+    private int count;
+    private boolean built;
+    private int expandedTop;
+    private int collapsedTop;
+    private int hiddenTop;
+
+    void setHeights(int[] heights) {
+        this.heights = heights.clone();
+        built = false;
+    }
+
+    void setFractions(float[] fractions) {
+        this.fractions = fractions.clone();
+        built = false;
+    }
+
+    boolean isEmpty() {
+        return heights.length == 0 && fractions.length == 0;
+    }
+
+    boolean isBuilt() {
+        return built;
+    }
+
+    int getExpandedTop() {
+        return expandedTop;
+    }
+
+    int getCollapsedTop() {
+        return collapsedTop;
+    }
+
+    int getHiddenTop() {
+        return hiddenTop;
+    }
+
+    /**
+     * Computes the offsets table. Called at layout time.
+     *
+     * @param parentHeight the parent height
+     * @param expandedTop the sheet top when expanded
+     * @param collapsedTop the sheet top when collapsed
+     * @param skipCollapsed whether the collapsed offset should be skipped
+     */
+    void build(int parentHeight, int expandedTop, int collapsedTop, boolean skipCollapsed) {
+        int capacity = heights.length + fractions.length + 3;
+        if (tops.length < capacity) tops = new int[capacity];
+        this.expandedTop = expandedTop;
+        this.hiddenTop = parentHeight;
+        // Must stay above the hidden slot.
+        this.collapsedTop = clamp(collapsedTop);
+
+        int n = 0;
+        tops[n++] = expandedTop;
+        if (!skipCollapsed) tops[n++] = this.collapsedTop;
+        for (int height : heights) {
+            tops[n++] = clamp(parentHeight - height);
+        }
+        for (float fraction : fractions) {
+            tops[n++] = clamp(parentHeight - (int) (fraction * parentHeight));
+        }
+        Arrays.sort(tops, 0, n);
+
+        // Remove duplicates in place.
+        count = 1;
+        for (int i = 1; i < n; i++) {
+            if (tops[i] != tops[count - 1]) tops[count++] = tops[i];
+        }
+        tops[count] = hiddenTop;
+        built = true;
+    }
+
+    private int clamp(int top) {
+        return Math.min(Math.max(top, expandedTop), hiddenTop - 1);
+    }
+
+    /**
+     * Finds where the sheet should settle.
+     * If velocity is above the fling threshold, this is the next anchor in the fling direction.
+     * Otherwise, it is the closest anchor.
+     *
+     * @param top the current sheet top
+     * @param velocity the sheet velocity in px/s, positive when moving down
+     * @param minFlingVelocity the fling threshold
+     * @param hideable whether the hidden offset can be a target
+     * @return the target top offset
+     */
+    int resolve(int top, float velocity, float minFlingVelocity, boolean hideable) {
+        int n = hideable ? count + 1 : count;
+        int index = Arrays.binarySearch(tops, 0, n, top);
+        int above, below;
+        if (index >= 0) {
+            if (Math.abs(velocity) <= minFlingVelocity) return tops[index];
+            above = index - 1;
+            below = index + 1;
+        } else {
+            below = -index - 1;
+            above = below - 1;
+        }
+        above = Math.max(above, 0);
+        below = Math.min(below, n - 1);
+        if (velocity > minFlingVelocity) return tops[below];
+        if (velocity < -minFlingVelocity) return tops[above];
+        return top - tops[above] <= tops[below] - top ? tops[above] : tops[below];
+    }
+}
@@ -0,0 +1,167 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.view.MotionEvent;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class GestureTraceRecorderTest {
+
+    private final static int HEADER_BYTES = 17;
+    private final static int RECORD_BYTES = 17;
+    private final static int SINGLE_POINTER = 1 << 16;
+
+    @Test
+    public void writesTraceFormat() throws IOException {
+        GestureTraceRecorder recorder = new GestureTraceRecorder(8);
+        MotionEvent down = MotionEvent.obtain(1000, 1000, MotionEvent.ACTION_DOWN, 10, 20, 0);
+        MotionEvent move = MotionEvent.obtain(1000, 1016, MotionEvent.ACTION_MOVE, 10, 60, 0);
+        recorder.recordEvent(GestureTraceRecorder.TYPE_INTERCEPT, down);
+        recorder.recordEvent(GestureTraceRecorder.TYPE_TOUCH, move);
+        down.recycle();
+        move.recycle();
+        recorder.recordAppBarOffset(-50);
+        assertEquals(3, recorder.size());
+
+        byte[] bytes = write(recorder);
+        assertEquals(HEADER_BYTES + 3 * RECORD_BYTES, bytes.length);
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+        assertEquals(0x42534354, data.readInt());
+        assertEquals(2, data.readByte());
+        assertEquals(3, data.readInt());
+        assertEquals(1000, data.readLong());
+
+        assertEquals(GestureTraceRecorder.TYPE_INTERCEPT, data.readByte());
+        assertEquals(0, data.readInt());
+        assertEquals(MotionEvent.ACTION_DOWN | SINGLE_POINTER, data.readInt());
+        assertEquals(10, data.readFloat(), 0);
+        assertEquals(20, data.readFloat(), 0);
+
+        assertEquals(GestureTraceRecorder.TYPE_TOUCH, data.readByte());
+        assertEquals(16, data.readInt());
+        assertEquals(MotionEvent.ACTION_MOVE | SINGLE_POINTER, data.readInt());
+        assertEquals(10, data.readFloat(), 0);
+        assertEquals(60, data.readFloat(), 0);
+
+        assertEquals(GestureTraceRecorder.TYPE_APP_BAR_OFFSET, data.readByte());
+        data.readInt(); // Clock time, not event time.
+        assertEquals(-50, data.readInt());
+    }
+
+    @Test
+    public void keepsLastRecordsWhenFull() throws IOException {
+        GestureTraceRecorder recorder = new GestureTraceRecorder(4);
+        for (int i = 0; i < 6; i++) recorder.recordState(i);
+        assertEquals(4, recorder.size());
+
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(write(recorder)));
+        data.skipBytes(5); // Magic and version.
+        assertEquals(4, data.readInt());
+        data.readLong();
+        for (int i = 2; i < 6; i++) {
+            assertEquals(GestureTraceRecorder.TYPE_STATE, data.readByte());
+            data.readInt();
+            assertEquals(i, data.readInt());
+            data.skipBytes(8);
+        }
+
+        recorder.clear();
+        assertEquals(0, recorder.size());
+        assertEquals(HEADER_BYTES, write(recorder).length);
+    }
+
+    @Test
+    public void replaysDeterministically() throws IOException {
+        // Record a drag on a collapsed sheet.
+        TestSheet original = new TestSheet(true);
+        original.reset(BottomSheetCoordinatorBehavior.STATE_COLLAPSED);
+        GestureTraceRecorder recorder = new GestureTraceRecorder(256);
+        original.behavior.setGestureTraceRecorder(recorder);
+        int height = original.parent.getHeight();
+        MotionEvent[] events = original.gesture(height * 0.95f, height * 0.4f, 20, 16);
+        original.dispatch(events);
+        TestSheet.recycle(events);
+        original.behavior.setGestureTraceRecorder(null);
+        original.settle();
+        byte[] trace = write(recorder);
+
+        // Replay it twice. Both replays should end in the same place as the original.
+        int[] tops = new int[2];
+        for (int i = 0; i < 2; i++) {
+            TestSheet replay = new TestSheet(true);
+            replay.reset(BottomSheetCoordinatorBehavior.STATE_COLLAPSED);
+            GestureTraceRecorder attached = new GestureTraceRecorder(256);
+            replay.behavior.setGestureTraceRecorder(attached);
+            GestureTraceRecorder.replay(new ByteArrayInputStream(trace), replay.parent, replay.sheet);
+            // The replay itself is not recorded, and the recorder is put back.
+            assertEquals(0, attached.size());
+            assertSame(attached, replay.behavior.getGestureTraceRecorder());
+            replay.settle();
+            assertEquals(original.sheet.getState(), replay.sheet.getState());
+            tops[i] = replay.sheet.getTop();
+        }
+        assertEquals(tops[0], tops[1]);
+        assertEquals(original.sheet.getTop(), tops[0]);
+    }
+
+    @Test
+    public void rejectsMultiPointerTraces() throws IOException {
+        TestSheet test = new TestSheet(true);
+        test.reset(BottomSheetCoordinatorBehavior.STATE_COLLAPSED);
+        int top = test.sheet.getTop();
+        float x = test.parent.getWidth() / 2f;
+        float y = test.parent.getHeight() * 0.95f;
+
+        // A single-pointer down and move, then a second finger.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(0x42534354);
+        data.writeByte(2);
+        data.writeInt(3);
+        data.writeLong(1000);
+        writeRecord(data, GestureTraceRecorder.TYPE_INTERCEPT, 0, MotionEvent.ACTION_DOWN | SINGLE_POINTER, x, y);
+        writeRecord(data, GestureTraceRecorder.TYPE_TOUCH, 16, MotionEvent.ACTION_MOVE | SINGLE_POINTER, x, y - 300);
+        writeRecord(data, GestureTraceRecorder.TYPE_TOUCH, 16, MotionEvent.ACTION_MOVE | 2 << 16, x, y - 600);
+        data.flush();
+
+        GestureTraceRecorder attached = new GestureTraceRecorder(16);
+        test.behavior.setGestureTraceRecorder(attached);
+        try {
+            GestureTraceRecorder.replay(new ByteArrayInputStream(out.toByteArray()), test.parent, test.sheet);
+            fail("Multi-pointer trace was replayed.");
+        } catch (IOException expected) {
+            // Nothing was dispatched.
+        }
+        assertEquals(0, attached.size());
+        assertSame(attached, test.behavior.getGestureTraceRecorder());
+        test.settle();
+        assertEquals(BottomSheetCoordinatorBehavior.STATE_COLLAPSED, test.sheet.getState());
+        assertEquals(top, test.sheet.getTop());
+    }
+
+    private static void writeRecord(DataOutputStream data, byte type, int delta, int value, float x, float y) throws IOException {
+        data.writeByte(type);
+        data.writeInt(delta);
+        data.writeInt(value);
+        data.writeFloat(x);
+        data.writeFloat(y);
+    }
+
+    private static byte[] write(GestureTraceRecorder recorder) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.writeTo(out);
+        return out.toByteArray();
+    }
+}
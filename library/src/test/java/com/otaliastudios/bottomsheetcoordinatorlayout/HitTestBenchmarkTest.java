@@ -0,0 +1,122 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the cached sheet hit test with {@link android.support.design.widget.CoordinatorLayout#isPointInChildBounds},
+ * which the behavior used to call for each event. Checks that both agree, including after
+ * the sheet moved, and that the cached one stays within its budget.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HitTestBenchmarkTest {
+
+    private final static int WARMUP_ITERATIONS = 20_000;
+    private final static int ITERATIONS = 200_000;
+    private final static int POINTS = 64;
+
+    // The cached hit test must not be slower than the uncached one, and must not allocate.
+    // Allocations are measured for the whole loop, so a few bytes of measuring overhead are allowed.
+    private final static double TIME_BUDGET_RATIO = 1.0;
+    private final static long ALLOCATION_BUDGET_BYTES = 1024;
+
+    @Test
+    public void cachedBoundsMatchChildBounds() {
+        TestSheet test = new TestSheet(true);
+        int[] states = new int[]{
+                BottomSheetCoordinatorBehavior.STATE_COLLAPSED,
+                BottomSheetCoordinatorBehavior.STATE_EXPANDED,
+                BottomSheetCoordinatorBehavior.STATE_HIDDEN,
+                BottomSheetCoordinatorBehavior.STATE_COLLAPSED
+        };
+        for (int state : states) {
+            test.reset(state);
+            int[] xs = new int[POINTS];
+            int[] ys = new int[POINTS];
+            fillPoints(test, xs, ys);
+            for (int i = 0; i < POINTS; i++) {
+                assertEquals(test.parent.isPointInChildBounds(test.sheet, xs[i], ys[i]),
+                        test.behavior.isPointInSheet(test.sheet, xs[i], ys[i]));
+            }
+        }
+    }
+
+    @Test
+    public void cachedBoundsFollowTranslation() {
+        TestSheet test = new TestSheet(true);
+        test.reset(BottomSheetCoordinatorBehavior.STATE_COLLAPSED);
+        int[] xs = new int[POINTS];
+        int[] ys = new int[POINTS];
+        fillPoints(test, xs, ys);
+        // Fill the cache, then move the sheet without a layout or offset change.
+        test.behavior.isPointInSheet(test.sheet, xs[0], ys[0]);
+        float[] translations = new float[]{-150, 0, 75.5f};
+        for (float translation : translations) {
+            test.sheet.setTranslationY(translation);
+            for (int i = 0; i < POINTS; i++) {
+                assertEquals(test.parent.isPointInChildBounds(test.sheet, xs[i], ys[i]),
+                        test.behavior.isPointInSheet(test.sheet, xs[i], ys[i]));
+            }
+        }
+    }
+
+    @Test
+    public void benchmark() {
+        TestSheet test = new TestSheet(true);
+        test.reset(BottomSheetCoordinatorBehavior.STATE_COLLAPSED);
+        int[] xs = new int[POINTS];
+        int[] ys = new int[POINTS];
+        fillPoints(test, xs, ys);
+
+        int hits = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            if (test.parent.isPointInChildBounds(test.sheet, xs[i % POINTS], ys[i % POINTS])) hits++;
+            if (test.behavior.isPointInSheet(test.sheet, xs[i % POINTS], ys[i % POINTS])) hits++;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (test.parent.isPointInChildBounds(test.sheet, xs[i % POINTS], ys[i % POINTS])) hits++;
+        }
+        long before = System.nanoTime() - start;
+
+        long startBytes = allocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (test.behavior.isPointInSheet(test.sheet, xs[i % POINTS], ys[i % POINTS])) hits++;
+        }
+        long after = System.nanoTime() - start;
+        long bytes = allocatedBytes() - startBytes;
+
+        assertTrue(hits > 0);
+        assertTrue("cached: " + after + "ns, uncached: " + before + "ns",
+                after <= before * TIME_BUDGET_RATIO);
+        if (startBytes >= 0) {
+            assertTrue("cached hit test allocated " + bytes + " bytes", bytes <= ALLOCATION_BUDGET_BYTES);
+        }
+    }
+
+    // Returns the bytes allocated by this thread so far, or -1 if the JVM can't tell.
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Points spread over the whole parent, so that about half of them fall inside the sheet.
+    private static void fillPoints(TestSheet test, int[] xs, int[] ys) {
+        int width = test.parent.getWidth();
+        int height = test.parent.getHeight();
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = (i * 37) % width;
+            ys[i] = (int) ((long) i * height / xs.length);
+        }
+    }
+}
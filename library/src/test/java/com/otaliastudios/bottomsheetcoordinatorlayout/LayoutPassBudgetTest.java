@@ -0,0 +1,86 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.os.Parcelable;
+import android.util.SparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that state transitions stay within a declared budget of measure, layout
+ * and draw passes, as reported by {@link BottomSheetCoordinatorLayout#getLastTransitionStats()}.
+ * If one of these fails, some change added passes to the transition: either it is
+ * expected, and the budget should be raised here, or it is a regression.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LayoutPassBudgetTest {
+
+    // Settling moves the sheet by offsets. It should not measure or lay out at all,
+    // but we allow one pass for content that reacts to the new state.
+    private final static int SETTLE_MEASURE_BUDGET = 1;
+    private final static int SETTLE_LAYOUT_BUDGET = 1;
+
+    // Restoring includes the first measure and layout, plus onMeasure initialization.
+    // The first traversal is allowed to measure twice.
+    private final static int RESTORE_MEASURE_BUDGET = 2;
+    private final static int RESTORE_LAYOUT_BUDGET = 1;
+    private final static int RESTORE_DRAW_BUDGET = 1;
+
+    @Test
+    public void collapsedToExpanded() {
+        TestSheet test = new TestSheet(true);
+        test.reset(BottomSheetCoordinatorBehavior.STATE_COLLAPSED);
+        test.sheet.setState(BottomSheetCoordinatorBehavior.STATE_EXPANDED);
+        int frames = test.settle();
+        assertSettleWithinBudget(test.sheet.getLastTransitionStats(), frames,
+                BottomSheetCoordinatorBehavior.STATE_COLLAPSED,
+                BottomSheetCoordinatorBehavior.STATE_EXPANDED);
+    }
+
+    @Test
+    public void expandedToHidden() {
+        TestSheet test = new TestSheet(true);
+        test.reset(BottomSheetCoordinatorBehavior.STATE_EXPANDED);
+        test.sheet.setState(BottomSheetCoordinatorBehavior.STATE_HIDDEN);
+        int frames = test.settle();
+        assertSettleWithinBudget(test.sheet.getLastTransitionStats(), frames,
+                BottomSheetCoordinatorBehavior.STATE_EXPANDED,
+                BottomSheetCoordinatorBehavior.STATE_HIDDEN);
+    }
+
+    @Test
+    public void restoreFromSavedState() {
+        TestSheet original = new TestSheet(true);
+        original.reset(BottomSheetCoordinatorBehavior.STATE_EXPANDED);
+        SparseArray<Parcelable> state = original.saveState();
+
+        // The restore transition ends at the first draw, which the constructor runs.
+        TestSheet restored = new TestSheet(true, state);
+        LayoutPassStats stats = restored.sheet.getLastTransitionStats();
+        assertTrue(stats.isRestore());
+        assertEquals(BottomSheetCoordinatorBehavior.STATE_EXPANDED, stats.getToState());
+        assertEquals(BottomSheetCoordinatorBehavior.STATE_EXPANDED, restored.sheet.getState());
+        assertWithinBudget("measure", stats.getMeasurePasses(), RESTORE_MEASURE_BUDGET);
+        assertWithinBudget("layout", stats.getLayoutPasses(), RESTORE_LAYOUT_BUDGET);
+        assertWithinBudget("draw", stats.getDrawPasses(), RESTORE_DRAW_BUDGET);
+    }
+
+    private static void assertSettleWithinBudget(LayoutPassStats stats, int frames, int fromState, int toState) {
+        assertFalse(stats.isRestore());
+        assertEquals(fromState, stats.getFromState());
+        assertEquals(toState, stats.getToState());
+        assertWithinBudget("measure", stats.getMeasurePasses(), SETTLE_MEASURE_BUDGET);
+        assertWithinBudget("layout", stats.getLayoutPasses(), SETTLE_LAYOUT_BUDGET);
+        // At most one draw per frame.
+        assertWithinBudget("draw", stats.getDrawPasses(), frames);
+    }
+
+    private static void assertWithinBudget(String pass, int passes, int budget) {
+        assertTrue(pass + " passes: " + passes + ", budget: " + budget, passes <= budget);
+    }
+}
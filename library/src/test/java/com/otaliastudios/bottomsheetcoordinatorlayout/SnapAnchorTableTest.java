@@ -0,0 +1,99 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SnapAnchorTableTest {
+
+    private final static int PARENT = 1000;
+    private final static int EXPANDED = 0;
+    private final static int COLLAPSED = 800;
+    private final static float MIN_FLING = 100;
+
+    private SnapAnchorTable table;
+
+    @Before
+    public void setUp() {
+        // Anchors at 500 (half height) and 700 (300px visible).
+        table = new SnapAnchorTable();
+        table.setFractions(new float[]{0.5f});
+        table.setHeights(new int[]{300});
+    }
+
+    @Test
+    public void buildsOffsets() {
+        assertFalse(table.isEmpty());
+        assertFalse(table.isBuilt());
+        table.build(PARENT, EXPANDED, COLLAPSED, false);
+        assertTrue(table.isBuilt());
+        assertEquals(EXPANDED, table.getExpandedTop());
+        assertEquals(COLLAPSED, table.getCollapsedTop());
+        assertEquals(PARENT, table.getHiddenTop());
+
+        table.setHeights(new int[0]);
+        assertFalse(table.isBuilt());
+    }
+
+    @Test
+    public void resolvesClosestAnchor() {
+        table.build(PARENT, EXPANDED, COLLAPSED, false);
+        assertEquals(500, table.resolve(500, 0, MIN_FLING, false));
+        assertEquals(500, table.resolve(600, 0, MIN_FLING, false)); // Ties go up.
+        assertEquals(700, table.resolve(650, 50, MIN_FLING, false));
+        assertEquals(0, table.resolve(200, -50, MIN_FLING, false));
+        assertEquals(COLLAPSED, table.resolve(790, 0, MIN_FLING, false));
+    }
+
+    @Test
+    public void resolvesNextAnchorWhenFlinging() {
+        table.build(PARENT, EXPANDED, COLLAPSED, false);
+        assertEquals(700, table.resolve(520, 500, MIN_FLING, false));
+        assertEquals(500, table.resolve(680, -500, MIN_FLING, false));
+        // From an anchor, a fling moves to the next one.
+        assertEquals(700, table.resolve(500, 500, MIN_FLING, false));
+        assertEquals(0, table.resolve(500, -500, MIN_FLING, false));
+        // Nothing past the ends.
+        assertEquals(0, table.resolve(0, -500, MIN_FLING, false));
+        assertEquals(COLLAPSED, table.resolve(900, 500, MIN_FLING, false));
+    }
+
+    @Test
+    public void resolvesHiddenOnlyIfHideable() {
+        table.build(PARENT, EXPANDED, COLLAPSED, false);
+        assertEquals(COLLAPSED, table.resolve(950, 0, MIN_FLING, false));
+        assertEquals(PARENT, table.resolve(950, 0, MIN_FLING, true));
+        assertEquals(PARENT, table.resolve(820, 500, MIN_FLING, true));
+        assertEquals(PARENT, table.resolve(COLLAPSED, 500, MIN_FLING, true));
+    }
+
+    @Test
+    public void skipsCollapsed() {
+        table.build(PARENT, EXPANDED, COLLAPSED, true);
+        assertEquals(700, table.resolve(790, 0, MIN_FLING, false));
+        assertEquals(PARENT, table.resolve(900, 0, MIN_FLING, true));
+    }
+
+    @Test
+    public void clampsAndMergesAnchors() {
+        // Taller than the parent, as tall as the expanded sheet, and zero height.
+        table.setHeights(new int[]{2000, PARENT - 100, 0});
+        table.setFractions(new float[]{0.5f, 0.5f});
+        table.build(PARENT, 100, COLLAPSED, false);
+        // Table is 100, 500, 800, 999.
+        assertEquals(500, table.resolve(100, 500, MIN_FLING, false));
+        assertEquals(100, table.resolve(500, -500, MIN_FLING, false));
+        assertEquals(COLLAPSED, table.resolve(500, 500, MIN_FLING, false));
+        assertEquals(PARENT - 1, table.resolve(COLLAPSED, 500, MIN_FLING, false));
+        assertEquals(PARENT, table.resolve(PARENT - 1, 500, MIN_FLING, true));
+    }
+
+    @Test
+    public void clampsCollapsedAboveHidden() {
+        table.build(PARENT, EXPANDED, PARENT + 50, false);
+        assertEquals(PARENT - 1, table.getCollapsedTop());
+    }
+}
@@ -0,0 +1,199 @@
+package com.otaliastudios.bottomsheetcoordinatorlayout;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.support.design.widget.AppBarLayout;
+import android.support.design.widget.CoordinatorLayout;
+import android.support.v4.widget.NestedScrollView;
+import android.util.SparseArray;
+import android.view.ContextThemeWrapper;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sheet inside a coordinator layout, attached to a visible activity, with helpers
+ * to run frames and build touch events. Used by Robolectric tests.
+ *
+ * A frame runs pending callbacks and traversals, then draws the hierarchy if it
+ * was invalidated, the way the Choreographer would.
+ */
+class TestSheet {
+
+    final static int FRAME_MILLIS = 16;
+    private final static int MAX_FRAMES = 500;
+
+    private final static int PARENT_ID = 1;
+    private final static int SHEET_ID = 2;
+    private final static int APP_BAR_ID = 3;
+    private final static int CONTENT_ID = 4;
+
+    final Activity activity;
+    final CoordinatorLayout parent;
+    final BottomSheetCoordinatorLayout sheet;
+    final BottomSheetCoordinatorBehavior behavior;
+    final NestedScrollView content;
+    @Nullable final AppBarLayout appBar;
+    private Canvas canvas;
+    private long downTime;
+    private long eventTime;
+
+    TestSheet(boolean withAppBar) {
+        this(withAppBar, null);
+    }
+
+    /**
+     * @param withAppBar whether the sheet should contain an app bar
+     * @param savedState if not null, this state is restored before the first layout
+     */
+    TestSheet(boolean withAppBar, @Nullable SparseArray<Parcelable> savedState) {
+        activity = Robolectric.buildActivity(Activity.class).setup().get();
+        Context context = new ContextThemeWrapper(activity, R.style.Theme_AppCompat_Light_NoActionBar);
+        parent = new CoordinatorLayout(context);
+        parent.setId(PARENT_ID);
+
+        sheet = new BottomSheetCoordinatorLayout(context);
+        sheet.setId(SHEET_ID);
+        if (withAppBar) {
+            appBar = new AppBarLayout(context);
+            appBar.setId(APP_BAR_ID);
+            AppBarLayout.LayoutParams headerParams = new AppBarLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, 300);
+            headerParams.setScrollFlags(AppBarLayout.LayoutParams.SCROLL_FLAG_SCROLL);
+            appBar.addView(new View(context), headerParams);
+            sheet.addView(appBar, new CoordinatorLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        } else {
+            appBar = null;
+        }
+        content = new NestedScrollView(context);
+        content.setId(CONTENT_ID);
+        content.addView(new View(context), new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 5000));
+        CoordinatorLayout.LayoutParams contentParams = new CoordinatorLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
+        if (withAppBar) contentParams.setBehavior(new AppBarLayout.ScrollingViewBehavior());
+        sheet.addView(content, contentParams);
+
+        behavior = new BottomSheetCoordinatorBehavior();
+        behavior.setHideable(true);
+        behavior.setPeekHeight(200);
+        CoordinatorLayout.LayoutParams sheetParams = new CoordinatorLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
+        sheetParams.setBehavior(behavior);
+        parent.addView(sheet, sheetParams);
+
+        if (savedState != null) parent.restoreHierarchyState(savedState);
+        activity.setContentView(parent);
+        frames(2);
+    }
+
+    SparseArray<Parcelable> saveState() {
+        SparseArray<Parcelable> container = new SparseArray<>();
+        parent.saveHierarchyState(container);
+        return container;
+    }
+
+    /**
+     * Runs one frame.
+     */
+    void frame() {
+        // Animation callbacks and traversals (measure and layout, no draw).
+        ShadowLooper.idleMainLooper(FRAME_MILLIS, TimeUnit.MILLISECONDS);
+        if (parent.isDirty() || sheet.isDirty()) {
+            if (canvas == null) {
+                canvas = new Canvas(Bitmap.createBitmap(parent.getWidth(), parent.getHeight(), Bitmap.Config.ARGB_8888));
+            }
+            parent.draw(canvas);
+        }
+    }
+
+    void frames(int count) {
+        for (int i = 0; i < count; i++) frame();
+    }
+
+    /**
+     * Runs frames until the sheet stops moving.
+     *
+     * @return the number of frames
+     */
+    int settle() {
+        int frames = 0;
+        do {
+            frame();
+            frames++;
+        } while (isMoving() && frames < MAX_FRAMES);
+        return frames;
+    }
+
+    private boolean isMoving() {
+        int state = sheet.getState();
+        return state == BottomSheetCoordinatorBehavior.STATE_SETTLING
+                || state == BottomSheetCoordinatorBehavior.STATE_DRAGGING;
+    }
+
+    /**
+     * Moves the sheet to the given state, without measuring anything.
+     */
+    void reset(int state) {
+        if (sheet.getState() != state) {
+            sheet.setState(state);
+            settle();
+        }
+    }
+
+    /**
+     * Obtains a single pointer event. Events are spaced by the given interval,
+     * starting over from ACTION_DOWN. The caller must recycle it.
+     */
+    MotionEvent obtain(int action, float y, long intervalMillis) {
+        if (action == MotionEvent.ACTION_DOWN) {
+            downTime = SystemClock.uptimeMillis();
+            eventTime = downTime;
+        } else {
+            eventTime += intervalMillis;
+        }
+        return MotionEvent.obtain(downTime, eventTime, action, parent.getWidth() / 2f, y, 0);
+    }
+
+    /**
+     * Builds a vertical gesture: down at fromY, a number of moves to toY, then up.
+     */
+    MotionEvent[] gesture(float fromY, float toY, int moves, long intervalMillis) {
+        MotionEvent[] events = new MotionEvent[moves + 2];
+        events[0] = obtain(MotionEvent.ACTION_DOWN, fromY, 0);
+        for (int i = 1; i <= moves; i++) {
+            float y = fromY + (toY - fromY) * i / moves;
+            events[i] = obtain(MotionEvent.ACTION_MOVE, y, intervalMillis);
+        }
+        events[moves + 1] = obtain(MotionEvent.ACTION_UP, toY, intervalMillis);
+        return events;
+    }
+
+    /**
+     * Sends events to the behavior, the way CoordinatorLayout does: to onInterceptTouchEvent
+     * until it returns true, then to onTouchEvent.
+     */
+    void dispatch(MotionEvent[] events) {
+        boolean intercepted = false;
+        for (MotionEvent event : events) {
+            if (!intercepted) intercepted = behavior.onInterceptTouchEvent(parent, sheet, event);
+            if (intercepted || event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                behavior.onTouchEvent(parent, sheet, event);
+            }
+        }
+    }
+
+    static void recycle(MotionEvent[] events) {
+        for (MotionEvent event : events) event.recycle();
+    }
+}